@@ -1,5 +1,7 @@
 package com.omarea.common.model
 
+import java.io.Serializable
+
 
 /*
 示例1： 用于Spinner
@@ -8,7 +10,11 @@ ArrayAdapter(context, R.layout.kr_spinner_default, R.id.text, options).apply {
 }
 */
 
-class SelectItem {
+class SelectItem : Serializable {
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     var title: String? = null
     // var desc: String = ""
     var value: String? = null
@@ -8,6 +8,7 @@ import java.io.File
 import java.io.FileNotFoundException
 import java.io.FileOutputStream
 import java.io.IOException
+import java.io.OutputStream
 
 /**
  * 提供公共方法，向外置存储读写文件
@@ -80,34 +81,12 @@ object FileWrite {
                 assetManager.open(file)
             }
 
-            val dir = File(getPrivateFileDir(context))
-            if (!dir.exists())
-                dir.mkdirs()
             val filePath = getPrivateFilePath(context, outName)
-            val fileDir = File(filePath).parentFile
-            if (fileDir != null) {
-                if (!fileDir.exists())
-                    fileDir.mkdirs()
-            }
-
-            val fileOutputStream = FileOutputStream(filePath)
-
-            val datas = ByteArray(20480)
-            while (true) {
-                val len = inputStream.read(datas)
-                if (len > 0) {
-                    fileOutputStream.write(datas, 0, len)
-                } else {
-                    break
+            inputStream.use {
+                writeAtomically(File(filePath)) { outputStream ->
+                    it.copyTo(outputStream, 20480)
                 }
             }
-
-            fileOutputStream.close()
-            inputStream.close()
-            val writedFile = File(filePath)
-            writedFile.setWritable(true)
-            writedFile.setExecutable(true)
-            writedFile.setReadable(true)
             return filePath
             //getApplicationContext().getClassLoader().getResourceAsStream("");
         } catch (e: IOException) {
@@ -119,25 +98,9 @@ object FileWrite {
 
     fun writePrivateFile(bytes: ByteArray, outName: String, context: Context): Boolean {
         try {
-            val dir = File(getPrivateFileDir(context))
-            if (!dir.exists())
-                dir.mkdirs()
-            val filePath = getPrivateFilePath(context, outName)
-            val fileDir = File(filePath).parentFile
-            if (fileDir != null) {
-                if (!fileDir.exists())
-                    fileDir.mkdirs()
+            writeAtomically(File(getPrivateFilePath(context, outName))) {
+                it.write(bytes, 0, bytes.size)
             }
-
-            val fileOutputStream = FileOutputStream(filePath)
-            fileOutputStream.write(bytes, 0, bytes.size)
-            fileOutputStream.close()
-            File(filePath).setExecutable(true, false)
-            //getApplicationContext().getClassLoader().getResourceAsStream("");
-            val writedFile = File(filePath)
-            writedFile.setWritable(true)
-            writedFile.setExecutable(true)
-            writedFile.setReadable(true)
             return true
         } catch (e: IOException) {
             e.printStackTrace()
@@ -146,29 +109,64 @@ object FileWrite {
     }
 
     fun writePrivateShellFile(file: String, outName: String, context: Context): String? {
-        val data = parseText(context, file)
-        if (data.isNotEmpty() && writePrivateFile(data, outName, context)) {
-            return getPrivateFilePath(context, outName)
+        val filePath = getPrivateFilePath(context, outName)
+        try {
+            var written = 0L
+            context.assets.open(file).use { inputStream ->
+                writeAtomically(File(filePath)) {
+                    //Dos转Unix，避免\r\n导致的脚本无法解析
+                    val outputStream = LineEndingOutputStream(it)
+                    inputStream.copyTo(outputStream)
+                    // 结束时才会写入末尾的\r
+                    outputStream.close()
+                    written = outputStream.written
+                }
+            }
+            if (written > 0) {
+                return filePath
+            }
+        } catch (ex: Exception) {
+            Log.e("script-parse", "" + ex.message)
         }
         return null
     }
 
-    //Dos转Unix，避免\r\n导致的脚本无法解析
-    private fun parseText(context: Context, fileName: String): ByteArray {
+    @Throws(IOException::class)
+    fun writeAtomically(file: File, bytes: ByteArray) {
+        writeAtomically(file) {
+            it.write(bytes, 0, bytes.size)
+        }
+    }
+
+    /**
+     * 先写入同目录下的临时文件，完成后再重命名为目标文件
+     * 写入中途失败（或进程被结束）时不会留下不完整的文件，正在执行的旧文件也不会被截断
+     * 每次写入使用不同的临时文件，多个线程同时写入同一个文件时互不影响（最后完成的生效）
+     */
+    @Throws(IOException::class)
+    fun writeAtomically(file: File, write: (OutputStream) -> Unit) {
+        val dir = file.parentFile
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs()
+        }
+        // createTempFile的前缀至少需要3个字符
+        val temp = File.createTempFile(file.name.padEnd(3, '_'), ".tmp", dir)
+        var published = false
         try {
-            val assetManager = context.assets
-            val inputStream = assetManager.open(fileName)
-            val datas = ByteArray(inputStream.available())
-            //inputStream.available()
-            var len = inputStream.read(datas)
-            if (len < 0) {
-                len = 0
+            FileOutputStream(temp).use {
+                write(it)
+            }
+            if (!temp.renameTo(file)) {
+                throw IOException("rename failed: " + file.path)
+            }
+            published = true
+        } finally {
+            if (!published) {
+                temp.delete()
             }
-            val codes = String(datas, 0, len).replace(Regex("\r\n"), "\n").replace(Regex("\r\t"), "\t")
-            return codes.toByteArray(Charsets.UTF_8)
-        } catch (ex: Exception) {
-            Log.e("script-parse", "" + ex.message)
-            return "".toByteArray()
         }
+        file.setWritable(true)
+        file.setExecutable(true, false)
+        file.setReadable(true)
     }
 }
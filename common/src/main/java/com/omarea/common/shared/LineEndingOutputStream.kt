@@ -0,0 +1,103 @@
+package com.omarea.common.shared
+
+import java.io.ByteArrayOutputStream
+import java.io.FilterOutputStream
+import java.io.OutputStream
+
+/**
+ * 写入时转换换行符的输出流（用于写入脚本，避免\r导致脚本无法解析）
+ * \r\n 和单独的 \r 转换为 \n，\r\t 转换为 \t
+ * 按字节处理（\r、\n、\t 不会出现在UTF-8多字节字符中），使用固定大小的缓冲区，不需要将整个文件转换为字符串
+ */
+class LineEndingOutputStream(out: OutputStream) : FilterOutputStream(out) {
+    companion object {
+        private const val CR = '\r'.code
+        private const val LF = '\n'.code
+        private const val TAB = '\t'.code
+
+        /**
+         * 转换一段内容的换行符
+         */
+        @JvmStatic
+        fun normalize(bytes: ByteArray): ByteArray {
+            val output = ByteArrayOutputStream(bytes.size)
+            LineEndingOutputStream(output).use {
+                it.write(bytes)
+            }
+            return output.toByteArray()
+        }
+    }
+
+    private val buffer = ByteArray(8192)
+    private var count = 0
+
+    // 上一个字节是\r，需要根据下一个字节决定如何输出
+    private var pendingCR = false
+
+    // 实际写入的字节数
+    var written = 0L
+        private set
+
+    override fun write(b: Int) {
+        val byte = b and 0xff
+        if (pendingCR) {
+            pendingCR = false
+            if (byte == TAB) {
+                put(TAB)
+                return
+            }
+            put(LF)
+            if (byte == LF) {
+                return
+            }
+        }
+        if (byte == CR) {
+            pendingCR = true
+        } else {
+            put(byte)
+        }
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        for (i in off until off + len) {
+            write(b[i].toInt())
+        }
+    }
+
+    private fun put(byte: Int) {
+        if (count == buffer.size) {
+            flushBuffer()
+        }
+        buffer[count++] = byte.toByte()
+        written++
+    }
+
+    private fun flushBuffer() {
+        if (count > 0) {
+            out.write(buffer, 0, count)
+            count = 0
+        }
+    }
+
+    // 末尾的\r在结束时才能确定（转换为\n）
+    private fun finish() {
+        if (pendingCR) {
+            pendingCR = false
+            put(LF)
+        }
+    }
+
+    override fun flush() {
+        flushBuffer()
+        out.flush()
+    }
+
+    override fun close() {
+        try {
+            finish()
+            flushBuffer()
+        } finally {
+            out.close()
+        }
+    }
+}
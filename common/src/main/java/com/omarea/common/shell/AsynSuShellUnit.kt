@@ -10,43 +10,38 @@ import java.nio.charset.Charset
 class AsynSuShellUnit(var handler: Handler) {
     var process: Process? = null
 
+    // 进程结束时的处理（waitFor设置），进程结束状态
+    private var onExit: ((Int) -> Unit)? = null
+    private var exitStatus: Int? = null
+
     private fun start(): AsynSuShellUnit {
         try {
             if (process == null)
                 process = ShellExecutor.getSuperUserRuntime()
 
-            Thread {
-                try {
-                    var line: String
-                    val reader = process!!.inputStream.bufferedReader()
-                    while (true) {
-                        line = reader.readLine()
-                        if (line != null) {
-                            line = line.trim()
-                            if (line.isNotEmpty())
-                                handler.sendMessage(handler.obtainMessage(1, line))
-                        } else {
-                            destroy()
-                            break
-                        }
-                    }
-                } catch (ex: Exception) {
-                    print(ex.message)
+            // 输出由共享的读取线程处理
+            ProcessIoDispatcher.watch(process!!, object : ProcessIoDispatcher.Listener {
+                override fun onOutput(line: String) {
+                    val text = line.trim()
+                    if (text.isNotEmpty())
+                        handler.sendMessage(handler.obtainMessage(1, text))
+                }
+
+                override fun onError(line: String) {
+                    val text = line.trim()
+                    if (text.isNotEmpty())
+                        handler.sendMessage(handler.obtainMessage(5, text))
                 }
-            }.start()
-            Thread {
-                try {
-                    var line: String
-                    val reader = process!!.errorStream.bufferedReader()
-                    while (true) {
-                        line = reader.readLine().trim()
-                        if (line.isNotEmpty())
-                            handler.sendMessage(handler.obtainMessage(5, line))
+
+                override fun onExit(status: Int) {
+                    destroy()
+                    val callback = synchronized(this@AsynSuShellUnit) {
+                        exitStatus = status
+                        onExit
                     }
-                } catch (ex: Exception) {
-                    print(ex.message)
+                    callback?.invoke(status)
                 }
-            }.start()
+            })
             handler.sendMessage(handler.obtainMessage(0, true))
         } catch (_: Exception) {
             handler.sendMessage(handler.obtainMessage(0, false))
@@ -54,6 +49,17 @@ class AsynSuShellUnit(var handler: Handler) {
         return this
     }
 
+    // 进程结束后执行（已结束时立即执行）
+    private fun whenExit(callback: (Int) -> Unit) {
+        val status = synchronized(this) {
+            onExit = callback
+            exitStatus
+        }
+        if (status != null) {
+            callback(status)
+        }
+    }
+
     fun destroy() {
         try {
             if (process != null) {
@@ -90,14 +96,9 @@ class AsynSuShellUnit(var handler: Handler) {
         writer.write("exit\nexit\nexit\n")
         writer.write("\n\n")
         writer.flush()
-        Thread {
-            if (process!!.waitFor() == 0) {
-                handler.sendMessage(handler.obtainMessage(10, true))
-            } else {
-                handler.sendMessage(handler.obtainMessage(10, false))
-            }
-            destroy()
-        }.start()
+        whenExit { status ->
+            handler.sendMessage(handler.obtainMessage(10, status == 0))
+        }
     }
 
     fun waitFor(next: Runnable) {
@@ -109,11 +110,9 @@ class AsynSuShellUnit(var handler: Handler) {
         writer.write("exit\nexit\nexit\n")
         writer.write("\n\n")
         writer.flush()
-        Thread {
-            process!!.waitFor()
-            destroy()
+        whenExit {
             handler.sendMessage(handler.obtainMessage(10, true))
             next.run()
-        }.start()
+        }
     }
 }
@@ -2,22 +2,35 @@ package com.omarea.common.shell
 
 import android.util.Log
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.launch
-import java.io.BufferedReader
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.IOException
+import java.io.InputStream
 import java.io.OutputStream
 import java.nio.charset.Charset
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.ReentrantLock
+import kotlin.coroutines.resume
 
 
 /**
  * Created by Hello on 2018/01/23.
  */
 class KeepShell(private var rootMode: Boolean = true) {
+    @Volatile
     private var p: Process? = null
+    @Volatile
     private var out: OutputStream? = null
-    private var reader: BufferedReader? = null
+    private var reader: InputStream? = null
     private var currentIsIdle = true // 是否处于闲置状态
     val isIdle: Boolean
         get() {
@@ -42,13 +55,19 @@ class KeepShell(private var rootMode: Boolean = true) {
         reader = null
         p = null
         currentIsIdle = true
+        failPendingCommands()
     }
 
     //获取ROOT超时时间
     private val mLock = ReentrantLock()
     private val LOCK_TIMEOUT = 10000L
+    private val EXEC_TIMEOUT = 30000L
     private var enterLockTime = 0L
 
+    // 持有会话锁的调用方正在等待的命令
+    @Volatile
+    private var runningFutures: List<ShellFuture>? = null
+
     private var checkRootState =
             // "if [[ \$(id -u 2>&1) == '0' ]] || [[ \$(\$UID) == '0' ]] || [[ \$(whoami 2>&1) == 'root' ]] || [[ \$(\$USER_ID) == '0' ]]; then\n" +
             $$"if [[ $(id -u 2>&1) == '0' ]] || [[ $($UID) == '0' ]] || [[ $(whoami 2>&1) == 'root' ]] || [[ $(set | grep 'USER_ID=0') == 'USER_ID=0' ]]; then\n" +
@@ -83,111 +102,452 @@ class KeepShell(private var rootMode: Boolean = true) {
         }
     }
 
+    private val startLock = Any()
+
+    // 会话初始化脚本：进程启动后在会话的顶层Shell中执行一次（不分帧），其中的export、cd等状态对之后的所有命令生效
+    @Volatile
+    private var initScript: String? = null
+
+    /**
+     * 设置会话初始化脚本，会话已启动时立即执行，之后重建进程时也会自动执行
+     */
+    fun setInitScript(script: String?) {
+        initScript = script
+        if (script != null && p != null) {
+            writeInitScript(script)
+        }
+    }
+
+    private fun writeInitScript(script: String) {
+        try {
+            synchronized(writeLock) {
+                out?.run {
+                    write("\n$script\n".toByteArray(Charset.defaultCharset()))
+                    flush()
+                }
+            }
+        } catch (ex: Exception) {
+            Log.e("KeepShell", "" + ex.message)
+        }
+    }
+
+    /**
+     * 提前启动会话进程（不执行任何命令）
+     * @return 进程是否已启动
+     */
+    fun warmUp(): Boolean {
+        getRuntimeShell()
+        return p != null
+    }
+
+    // 进程是否已启动（会话是懒启动的，未使用过的会话没有进程）
+    val isStarted: Boolean
+        get() = p != null
+
+    // 进程是否仍在运行
+    val isAlive: Boolean
+        get() {
+            val process = p ?: return false
+            return try {
+                process.exitValue()
+                false
+            } catch (ex: IllegalThreadStateException) {
+                true
+            }
+        }
+
+    /**
+     * 心跳检测：执行一个空命令，检查会话能否在指定时间内响应（未启动的会话不会被启动）
+     */
+    fun heartbeat(timeout: Long): Boolean {
+        if (!isAlive) {
+            return false
+        }
+        val future = submit("echo 1")
+        return try {
+            future.get(timeout, TimeUnit.MILLISECONDS).stdout == "1"
+        } catch (ex: Exception) {
+            cancel(future)
+            false
+        }
+    }
+
     private fun getRuntimeShell() {
         if (p != null) return
-        val getSu = Thread {
-            try {
-                mLock.lockInterruptibly()
-                enterLockTime = System.currentTimeMillis()
-                p =
-                    if (rootMode) ShellExecutor.getSuperUserRuntime() else ShellExecutor.getRuntime()
-                out = p!!.outputStream
-                reader = p!!.inputStream.bufferedReader()
-                if (rootMode) {
-                    out?.run {
-                        write(checkRootState.toByteArray(Charset.defaultCharset()))
-                        flush()
+        synchronized(startLock) {
+            if (p != null) return
+            val getSu = Thread {
+                try {
+                    val process =
+                        if (rootMode) ShellExecutor.getSuperUserRuntime() else ShellExecutor.getRuntime()
+                    reader = process.inputStream
+                    startReader(process, reader!!)
+                    out = process.outputStream
+                    if (rootMode) {
+                        out?.run {
+                            write(checkRootState.toByteArray(Charset.defaultCharset()))
+                            flush()
+                        }
                     }
+                    // 初始化脚本写入后才公开进程，保证之后提交的命令都在初始化完成后执行
+                    initScript?.run { writeInitScript(this) }
+                    p = process
+                    startErrorReader(process.errorStream)
+                } catch (ex: Exception) {
+                    Log.e("getRuntime", "" + ex.message)
                 }
-                Thread {
-                    try {
-                        val errorReader =
-                            p!!.errorStream.bufferedReader()
-                        while (true) {
-                            Log.e("KeepShellPublic", errorReader.readLine())
+            }
+            getSu.start()
+            getSu.join(10000)
+            if (p == null && getSu.state != Thread.State.TERMINATED) {
+                getSu.interrupt()
+            }
+        }
+    }
+
+    // 标准输出的帧结束后，最多等待标准错误输出帧结束的时间
+    private val STDERR_WAIT = 200L
+
+    private val startTag = "|SH>>|"
+    private val endTag = "|<<SH|"
+    private val pidTag = "|PID>>|"
+
+    // 每个命令帧的唯一标识，读取线程据此将输出分发给对应的请求
+    private val nonceSeed = Integer.toHexString(System.identityHashCode(this))
+    private val nonceCounter = AtomicLong(0)
+    private val pendingCommands = ConcurrentHashMap<String, ShellFuture>()
+    private val writeLock = Any()
+
+    // 流水线模式：命令写入后立即释放会话，多个命令可同时处于执行中，结果由读取线程分发
+    @Volatile
+    var pipelined = false
+
+    private fun startReader(process: Process, inputStream: InputStream) {
+        Thread {
+            try {
+                ShellOutputFramer(inputStream, object : ShellOutputFramer.Handler {
+                    override fun onFrameStart(nonce: String): Boolean {
+                        val current = pendingCommands[nonce] ?: return false
+                        current.startTime = System.currentTimeMillis()
+                        return current.onLine != null
+                    }
+
+                    override fun onFrameLine(nonce: String, line: String) {
+                        pendingCommands[nonce]?.onLine?.invoke(line)
+                    }
+
+                    override fun onFramePid(nonce: String, pid: Int) {
+                        val current = pendingCommands[nonce] ?: return
+                        current.pid = pid
+                        // 命令在开始执行前就已被取消
+                        if (current.isCancelled) {
+                            killJob(pid)
                         }
-                    } catch (ex: Exception) {
-                        Log.e("c", "" + ex.message)
                     }
-                }.start()
+
+                    override fun onFrameEnd(nonce: String, content: String, status: String) {
+                        pendingCommands.remove(nonce)?.finish(content, status.toIntOrNull() ?: 0, STDERR_WAIT)
+                    }
+                }).run()
             } catch (ex: Exception) {
-                Log.e("getRuntime", "" + ex.message)
+                Log.e("KeepShell", "" + ex.message)
             } finally {
-                enterLockTime = 0L
-                mLock.unlock()
+                // 进程已结束，尚未完成的命令全部以失败返回
+                if (p == null || p === process) {
+                    failPendingCommands()
+                }
             }
-        }
-        getSu.start()
-        getSu.join(10000)
-        if (p == null && getSu.state != Thread.State.TERMINATED) {
-            enterLockTime = 0L
-            getSu.interrupt()
+        }.start()
+    }
+
+    // 读取标准错误输出，按帧分发给对应的命令，帧之外的输出（如su自身的提示）仍写入日志
+    private fun startErrorReader(inputStream: InputStream) {
+        Thread {
+            try {
+                ShellOutputFramer(inputStream, object : ShellOutputFramer.Handler {
+                    override fun onFrameStart(nonce: String): Boolean {
+                        return false
+                    }
+
+                    override fun onFrameEnd(nonce: String, content: String, status: String) {
+                        pendingCommands[nonce]?.run {
+                            appendError(content)
+                            finishErrors()
+                        }
+                    }
+
+                    override fun onUnframed(line: String) {
+                        Log.e("KeepShell", line)
+                    }
+                }, true).run()
+            } catch (ex: Exception) {
+                Log.e("KeepShell", "" + ex.message)
+            }
+        }.start()
+    }
+
+    private fun failPendingCommands() {
+        for (nonce in pendingCommands.keys.toList()) {
+            pendingCommands.remove(nonce)?.complete(ShellResult.failed())
         }
     }
 
-    private var br = "\n\n".toByteArray(Charset.defaultCharset())
+    // 标准输出和标准错误输出各自写入帧开始、结束标记，退出状态码随标准输出的结束标记返回
+    // 命令在后台子shell中执行并报告PID，取消时只结束该子shell，不影响会话本身
+    private fun writeFrame(buffer: StringBuilder, nonce: String, cmd: String) {
+        buffer.append("\necho '").append(startTag).append(nonce).append("|' 1>&2\n")
+        buffer.append("echo '").append(startTag).append(nonce).append("|'\n")
+        buffer.append("(\n")
+        buffer.append(cmd)
+        buffer.append("\n) &\n")
+        buffer.append("__KS_PID=\$!\n")
+        buffer.append("echo \"").append(pidTag).append(nonce).append("|\$__KS_PID|\"\n")
+        buffer.append("wait \$__KS_PID\n")
+        buffer.append("__KS_EXIT=\$?\n")
+        buffer.append("echo '").append(endTag).append(nonce).append("|' 1>&2\n")
+        buffer.append("echo \"").append(endTag).append(nonce).append("|\$__KS_EXIT|\"\n")
+    }
 
-    private val shellOutputCache = StringBuilder()
-    private val startTag = "|SH>>|"
-    private val endTag = "|<<SH|"
-    private val startTagBytes = "\necho '$startTag'\n".toByteArray(Charset.defaultCharset())
-    private val endTagBytes = "\necho '$endTag'\n".toByteArray(Charset.defaultCharset())
+    /**
+     * 提交一组命令（不等待执行结果）
+     * 每个命令使用独立的帧标识，所有命令通过一次写入发送到会话
+     */
+    fun submit(commands: List<String>): List<ShellFuture> {
+        return submit(commands, null)
+    }
 
-    //执行脚本
-    fun doCmdSync(cmd: String): String {
-        if (mLock.isLocked && enterLockTime > 0 && System.currentTimeMillis() - enterLockTime > LOCK_TIMEOUT) {
-            tryExit()
-            Log.e("doCmdSync-Lock", "线程等待超时${System.currentTimeMillis()} - $enterLockTime > $LOCK_TIMEOUT")
+    private fun submit(commands: List<String>, onLine: ((String) -> Unit)?): List<ShellFuture> {
+        getRuntimeShell()
+
+        val futures = ArrayList<ShellFuture>(commands.size)
+        val buffer = StringBuilder()
+        for (cmd in commands) {
+            val future = ShellFuture(nonceSeed + "-" + nonceCounter.incrementAndGet())
+            future.onLine = onLine
+            writeFrame(buffer, future.nonce, cmd)
+            futures.add(future)
+        }
+
+        val stream = out
+        if (stream == null) {
+            futures.forEach { it.complete(ShellResult.failed()) }
+            return futures
+        }
+        val now = System.currentTimeMillis()
+        futures.forEach {
+            it.submitTime = now
+            pendingCommands[it.nonce] = it
+        }
+        try {
+            synchronized(writeLock) {
+                stream.write(buffer.toString().toByteArray(Charset.defaultCharset()))
+                stream.flush()
+            }
+        } catch (ex: Exception) {
+            futures.forEach {
+                pendingCommands.remove(it.nonce)
+                it.complete(ShellResult.failed())
+            }
+            Log.e("KeepShell", "" + ex.message)
+        }
+        return futures
+    }
+
+    /**
+     * 提交命令（不等待执行结果）
+     */
+    fun submit(cmd: String): ShellFuture {
+        return submit(listOf(cmd)).first()
+    }
+
+    /**
+     * 批量执行命令，一次往返返回每个命令各自的输出和退出状态
+     */
+    fun doCmdBatch(commands: List<String>): List<ShellResult> {
+        if (commands.isEmpty()) {
+            return ArrayList()
         }
         getRuntimeShell()
 
+        if (pipelined) {
+            return submit(commands).map { awaitResult(it) }
+        }
 
+        val lockStart = System.currentTimeMillis()
         try {
             mLock.lockInterruptibly()
             currentIsIdle = false
+            enterLockTime = System.currentTimeMillis()
 
-            out?.run {
-                GlobalScope.launch(Dispatchers.IO) {
-                    write(startTagBytes)
-                    write(cmd.toByteArray(Charset.defaultCharset()))
-                    write(endTagBytes)
-                    flush()
+            val lockWait = enterLockTime - lockStart
+            val futures = submit(commands)
+            runningFutures = futures
+            return futures.map { awaitResult(it).apply { queueWait += lockWait } }
+        } catch (e: Exception) {
+            tryExit()
+            Log.e("KeepShell", "" + e.message)
+            return commands.map { ShellResult.failed() }
+        } finally {
+            enterLockTime = 0L
+            if (mLock.isHeldByCurrentThread) {
+                runningFutures = null
+                mLock.unlock()
+            }
+
+            currentIsIdle = true
+        }
+    }
+
+    /**
+     * 取消一个命令：结束该命令所在的子进程（尚未开始执行的，在开始时立即结束）
+     * 会话本身和其它命令不受影响
+     */
+    fun cancel(future: ShellFuture) {
+        if (future.cancel(false)) {
+            val pid = future.pid
+            if (pid > 0) {
+                killJob(pid)
+            }
+        }
+    }
+
+    // 结束命令所在的子shell及其所有子进程（会话正阻塞在wait中，因此需要通过其它途径执行kill）
+    // ROOT模式下优先使用ROOT辅助进程，其次使用公共会话池中空闲的会话，都不可用时才启动新的su进程
+    private fun killJob(pid: Int) {
+        Thread {
+            try {
+                val script = "__ks_kill() { kill -STOP \$1; for c in \$(pgrep -P \$1); do __ks_kill \$c; done; kill -9 \$1; }; __ks_kill $pid 2>/dev/null"
+                if (rootMode) {
+                    if (RootHelper.killTree(pid)) {
+                        return@Thread
+                    }
+                    val pool = KeepShellPublic.getCreatedPool()
+                    if (pool != null && pool.doCmdIfIdle(script) != null) {
+                        return@Thread
+                    }
                 }
+                val process = Runtime.getRuntime().exec(
+                    if (rootMode) arrayOf("su", "-c", script) else arrayOf("sh", "-c", script)
+                )
+                process.waitFor()
+                process.destroy()
+            } catch (ex: Exception) {
+                Log.e("KeepShell", "kill $pid " + ex.message)
             }
+        }.start()
+    }
 
-            var unstart = true
-            while (reader != null) {
-                val line = reader!!.readLine()
-                if (line == null) {
-                    break
-                } else if (line.contains(endTag)) {
-                    shellOutputCache.append(line.substringBefore(endTag))
-                    break
-                } else if (line.contains(startTag)) {
-                    shellOutputCache.clear()
-                    shellOutputCache.append(line.substring(line.indexOf(startTag) + startTag.length))
-                    unstart = false
-                } else if (!unstart) {
-                    shellOutputCache.append(line)
-                    shellOutputCache.append("\n")
+    // 会话锁被占用超时，结束正在执行的命令；如果还不知道命令的PID，只能重建会话
+    private fun cancelRunning() {
+        val running = runningFutures
+        if (running != null && running.all { it.isDone || it.pid > 0 }) {
+            running.forEach { cancel(it) }
+        } else {
+            tryExit()
+        }
+    }
+
+    /**
+     * 执行脚本（挂起直到返回结果）
+     * 不占用会话锁，超时或协程被取消时只放弃当前命令，会话保持可用
+     * @param timeout 超时时间（毫秒），超时返回失败的结果
+     */
+    suspend fun exec(cmd: String, timeout: Long = EXEC_TIMEOUT): ShellResult {
+        var future: ShellFuture? = null
+        try {
+            // 提交不可取消：命令写入后才取消时，也要拿到future以便结束命令
+            withContext(NonCancellable + Dispatchers.IO) { future = submit(cmd) }
+            val submitted = future!!
+            return withTimeoutOrNull(timeout) {
+                suspendCancellableCoroutine { continuation ->
+                    submitted.invokeOnComplete { continuation.resume(it) }
                 }
+            } ?: ShellResult.cancelled()
+        } finally {
+            // 超时或调用方被取消时，结束仍在运行的命令
+            future?.run {
+                if (!isDone) {
+                    cancel(this)
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行脚本，逐行返回输出
+     * 命令执行失败时以IOException结束，收集方取消时只放弃当前命令
+     */
+    fun execFlow(cmd: String): Flow<String> = callbackFlow {
+        val future = submit(listOf(cmd)) { trySend(it) }.first()
+        future.invokeOnComplete {
+            if (it.isFailed) {
+                close(IOException("Shell command [${future.nonce}] failed"))
+            } else {
+                close()
             }
-            // Log.e("shell-unlock", cmd)
-            // Log.d("Shell", cmd.toString() + "\n" + "Result:"+results.toString().trim())
-            return shellOutputCache.toString().trim()
+        }
+        awaitClose {
+            if (!future.isDone) {
+                cancel(future)
+            }
+        }
+    }.flowOn(Dispatchers.IO)
+
+    private fun awaitResult(future: ShellFuture): ShellResult {
+        return try {
+            future.get()
+        } catch (e: Exception) {
+            Log.e("KeepShell", "" + e.message)
+            ShellResult.failed()
+        }
+    }
+
+    /**
+     * 执行脚本，返回包含输出、错误输出、退出状态和耗时的结果
+     */
+    fun doCmdResult(cmd: String): ShellResult {
+        if (mLock.isLocked && enterLockTime > 0 && System.currentTimeMillis() - enterLockTime > LOCK_TIMEOUT) {
+            cancelRunning()
+            Log.e("doCmdSync-Lock", "线程等待超时${System.currentTimeMillis()} - $enterLockTime > $LOCK_TIMEOUT")
+        }
+
+        getRuntimeShell()
+
+        if (pipelined) {
+            return awaitResult(submit(cmd))
+        }
+
+        val lockStart = System.currentTimeMillis()
+        try {
+            mLock.lockInterruptibly()
+            currentIsIdle = false
+            enterLockTime = System.currentTimeMillis()
+
+            val future = submit(cmd)
+            runningFutures = listOf(future)
+            return future.get().apply { queueWait += enterLockTime - lockStart }
         }
         catch (e: Exception) {
             tryExit()
             Log.e("KeepShellAsync", "" + e.message)
-            return "error"
+            return ShellResult.failed()
         } finally {
             enterLockTime = 0L
-            mLock.unlock()
+            if (mLock.isHeldByCurrentThread) {
+                runningFutures = null
+                mLock.unlock()
+            }
 
             currentIsIdle = true
         }
     }
 
+    //执行脚本
+    fun doCmdSync(cmd: String): String {
+        val result = doCmdResult(cmd)
+        return if (result.isFailed) "error" else result.stdout
+    }
+
     // 执行脚本，并对结果进行ResourceID翻译
     fun doCmdSync(shellCommand: String, shellTranslation: ShellTranslation): String {
         val rows = doCmdSync(shellCommand).split("\n")
@@ -7,14 +7,45 @@ import android.widget.Toast
 import java.io.BufferedReader
 import java.io.BufferedWriter
 import java.io.IOException
+import java.io.InputStream
 import java.io.InputStreamReader
 import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 /**
  * Created by Hello on 2018/01/23.
  */
 class KeepShellAsync(private var context: Context?, private var rootMode: Boolean = true) : ShellEvents() {
+    /**
+     * 进程启动期间，等待写入的命令超出上限时的处理方式
+     */
+    /**
+     * 批量接收输出（约每帧一次，在主线程回调）
+     * 设置后输出只通过此回调传递，不再逐行发送PROCESS_EVENT_CONTENT、PROCESS_EVENT_ERROR_CONTENT消息
+     */
+    interface OutputBatchListener {
+        /**
+         * @param lines 本批输出的行（不包含换行符）
+         * @param isError 是否为错误输出
+         */
+        fun onOutputBatch(lines: List<String>, isError: Boolean)
+    }
+
+    enum class OverflowPolicy {
+        // 拒绝新提交的命令
+        REJECT,
+        // 丢弃最早提交的命令
+        DROP_OLDEST
+    }
+
     companion object {
+        // 进程启动期间最多缓存的命令数和字符数
+        const val MAX_PENDING_COMMANDS = 64
+        const val MAX_PENDING_CHARS = 256 * 1024
+
+        // 批量输出：同一批最多等待的时间（约一帧）
+        private const val OUTPUT_BATCH_INTERVAL = 16L
+
         private val keepShells = HashMap<String, KeepShellAsync>()
         fun getInstance(key: String): KeepShellAsync {
             synchronized(keepShells) {
@@ -54,10 +85,27 @@ class KeepShellAsync(private var context: Context?, private var rootMode: Boolea
     private var handler: Handler = Handler(Looper.getMainLooper())
     private val mLock = ReentrantLock()
 
+    var overflowPolicy = OverflowPolicy.REJECT
+
+    // 被拒绝或丢弃的命令数
+    @Volatile
+    var rejectedCount = 0L
+        private set
+
+    @Volatile
+    private var batchListener: OutputBatchListener? = null
+
     fun setHandler(handler: Handler) {
         this.processHandler = handler
     }
 
+    /**
+     * 设置批量输出回调（为null时恢复逐行发送消息）
+     */
+    fun setOutputBatchListener(listener: OutputBatchListener?) {
+        this.batchListener = listener
+    }
+
     private fun showMsg(msg: String) {
         try {
             if (context != null)
@@ -87,13 +135,90 @@ class KeepShellAsync(private var context: Context?, private var rootMode: Boolea
     //获取ROOT超时时间
     private val GET_ROOT_TIMEOUT = 20000L
     private var threadStarted = false
-    private var cmdsCache = StringBuilder()
 
-    private fun getRuntimeShell(cmd: String?, error: Runnable?) {
-        if (threadStarted) {
-            cmdsCache.append(cmd)
-            cmdsCache.append("\n\n")
-            return
+    // 进程启动期间提交的命令（有界，由mLock保护）
+    private val pendingCmds = ArrayDeque<String>()
+    private var pendingChars = 0
+
+    // 缓存启动期间提交的命令，超出上限时按overflowPolicy处理
+    private fun enqueuePending(cmd: String): Boolean {
+        while (pendingCmds.size >= MAX_PENDING_COMMANDS || pendingChars + cmd.length > MAX_PENDING_CHARS) {
+            if (overflowPolicy == OverflowPolicy.DROP_OLDEST && pendingCmds.isNotEmpty()) {
+                pendingChars -= pendingCmds.removeFirst().length
+                rejectedCount++
+            } else {
+                rejectedCount++
+                return false
+            }
+        }
+        pendingCmds.addLast(cmd)
+        pendingChars += cmd.length
+        return true
+    }
+
+    private fun drainPending(): List<String> {
+        val cmds = ArrayList(pendingCmds)
+        pendingCmds.clear()
+        pendingChars = 0
+        return cmds
+    }
+
+    // 将读取线程的输出按帧合并，在主线程批量回调
+    private inner class OutputBatcher(private val isError: Boolean) : Runnable {
+        private val lines = ArrayList<String>()
+        private var posted = false
+
+        fun add(line: String) {
+            synchronized(this) {
+                lines.add(line)
+                if (posted) {
+                    return
+                }
+                posted = true
+            }
+            handler.postDelayed(this, OUTPUT_BATCH_INTERVAL)
+        }
+
+        override fun run() {
+            val batch = synchronized(this) {
+                posted = false
+                ArrayList(lines).also { lines.clear() }
+            }
+            if (batch.isNotEmpty()) {
+                batchListener?.onOutputBatch(batch, isError)
+            }
+        }
+    }
+
+    /**
+     * 逐行读取输出：设置了批量输出回调时按帧合并后回调，否则每行发送一条消息
+     */
+    private fun readOutput(stream: InputStream, what: Int, batcher: OutputBatcher) {
+        val reader = BufferedReader(InputStreamReader(stream))
+        try {
+            while (true) {
+                val line = reader.readLine() ?: break
+                if (batchListener != null) {
+                    batcher.add(line)
+                } else {
+                    processHandler?.run { sendMessage(obtainMessage(what, line)) }
+                }
+            }
+        } catch (ex: Exception) {
+        } finally {
+            reader.close()
+        }
+    }
+
+    /**
+     * @return 命令是否被接受（启动期间缓存已满时按overflowPolicy拒绝）
+     */
+    private fun getRuntimeShell(cmd: String?, error: Runnable?): Boolean {
+        mLock.withLock {
+            if (threadStarted) {
+                return cmd == null || enqueuePending(cmd)
+            }
+            threadStarted = true
         }
         val thread = Thread {
             try {
@@ -105,65 +230,35 @@ class KeepShellAsync(private var context: Context?, private var rootMode: Boolea
                     processHandler!!.sendMessage(processHandler!!.obtainMessage(PROCESS_EVENT_STAR))
                 }
                 if (p != null) {
-                    Thread {
-                        val bufferedreader = BufferedReader(InputStreamReader(p!!.inputStream))
-                        try {
-                            while (true) {
-                                val line = bufferedreader.readLine()
-                                if (line != null) {
-                                    if (processHandler != null) {
-                                        processHandler!!.sendMessage(
-                                            processHandler!!.obtainMessage(
-                                                PROCESS_EVENT_CONTENT,
-                                                line
-                                            )
-                                        )
-                                    }
-                                } else {
-                                    break
-                                }
-                            }
-                        } catch (ex: Exception) {
-                        } finally {
-                            bufferedreader.close()
-                        }
-                    }.start()
-                    Thread {
-                        val bufferedreader = BufferedReader(InputStreamReader(p!!.errorStream))
-                        try {
-                            while (true) {
-                                val line = bufferedreader.readLine()
-                                if (line != null) {
-                                    if (processHandler != null) {
-                                        processHandler!!.sendMessage(
-                                            processHandler!!.obtainMessage(
-                                                PROCESS_EVENT_ERROR_CONTENT,
-                                                line
-                                            )
-                                        )
-                                    }
-                                } else {
-                                    break
-                                }
+                    val process = p!!
+                    Thread { readOutput(process.inputStream, PROCESS_EVENT_CONTENT, OutputBatcher(false)) }.start()
+                    Thread { readOutput(process.errorStream, PROCESS_EVENT_ERROR_CONTENT, OutputBatcher(true)) }.start()
+                }
+                val writer = p!!.outputStream.bufferedWriter()
+                if (cmd != null) {
+                    writer.write(cmd)
+                    writer.write("\n\n")
+                }
+                // 写入启动期间缓存的命令，缓存清空后才公开输出流，之后提交的命令直接写入，保证顺序
+                while (true) {
+                    val pending = mLock.withLock {
+                        drainPending().also {
+                            if (it.isEmpty()) {
+                                out = writer
+                                threadStarted = false
                             }
-                        } catch (ex: Exception) {
-                        } finally {
-                            bufferedreader.close()
                         }
-                    }.start()
-                }
-                out = p!!.outputStream.bufferedWriter()
-                if (out == null) {
-                    error?.run()
-                } else if (cmd != null) {
-                    out!!.write(cmd)
-                    out!!.write("\n\n")
-                    if (cmdsCache.isNotEmpty()) {
-                        out!!.write(cmdsCache.toString())
-                        cmdsCache = StringBuilder()
                     }
-                    out!!.flush()
+                    if (pending.isEmpty()) {
+                        break
+                    }
+                    for (item in pending) {
+                        writer.write(item)
+                        writer.write("\n\n")
+                    }
+                    writer.flush()
                 }
+                writer.flush()
             } catch (e: Exception) {
                 if (out == null) {
                     error?.run()
@@ -171,11 +266,12 @@ class KeepShellAsync(private var context: Context?, private var rootMode: Boolea
                     showMsg("获取ROOT权限失败！")
                 }
             } finally {
-                threadStarted = false
+                mLock.withLock {
+                    threadStarted = false
+                }
             }
         }
         thread.start()
-        threadStarted = true
         handler.postDelayed({
             if (p == null && thread.isAlive && !thread.isInterrupted) {
                 thread.interrupt()
@@ -185,17 +281,24 @@ class KeepShellAsync(private var context: Context?, private var rootMode: Boolea
                 } else {
                     showMsg("获取Root权限超时！")
                 }
-                threadStarted = false
+                mLock.withLock {
+                    threadStarted = false
+                    drainPending()
+                }
             }
         }, GET_ROOT_TIMEOUT)
+        return true
     }
 
-    //执行脚本
-    fun doCmd(cmd: String, isRedo: Boolean = false) {
+    /**
+     * 执行脚本
+     * @return 命令是否被接受（进程启动期间缓存已满时可能被拒绝）
+     */
+    fun doCmd(cmd: String, isRedo: Boolean = false): Boolean {
         try {
             //tryExit()
             if (p == null || isRedo || out == null) {
-                getRuntimeShell(cmd) {
+                return getRuntimeShell(cmd) {
                     //重试一次
                     if (!isRedo)
                         doCmd(cmd, true)
@@ -210,9 +313,10 @@ class KeepShellAsync(private var context: Context?, private var rootMode: Boolea
         } catch (e: IOException) {
             //重试一次
             if (!isRedo)
-                doCmd(cmd, true)
+                return doCmd(cmd, true)
             else
                 showMsg("Failed execution action!\nError message : " + e.message + "\n\n\ncommand : \r\n" + cmd)
         }
+        return true
     }
 }
@@ -0,0 +1,397 @@
+package com.omarea.common.shell
+
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.runInterruptible
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 常驻Shell连接池
+ * 每个会话对应一个独立的su(sh)进程，调用方按先来先得的顺序借出空闲会话，用完后归还
+ */
+class KeepShellPool @JvmOverloads constructor(
+    size: Int = DEFAULT_SIZE,
+    private val rootMode: Boolean = true,
+    // 连接池名称，用于耗时统计
+    val name: String = if (rootMode) "root" else "shell"
+) {
+    companion object {
+        const val DEFAULT_SIZE = 3
+        const val MAX_SIZE = 8
+
+        // 等待空闲会话的超时时间
+        private const val CHECKOUT_TIMEOUT = 30000L
+
+        // 连续失败多少次后，认为会话已不可用
+        private const val MAX_FAILURES = 2
+    }
+
+    class Session(val id: Int, val shell: KeepShell) {
+        // 会话是否健康（连续执行失败后会被标记为不健康，并在下次使用前重建进程）
+        @Volatile
+        var healthy = true
+            internal set
+
+        // 连续失败次数
+        @Volatile
+        var failures = 0
+            internal set
+
+        // 已执行的命令数
+        @Volatile
+        var commands = 0L
+            internal set
+
+        @Volatile
+        var lastUsedTime = 0L
+            internal set
+
+        // 最近一次借出时等待的时间
+        internal var waitTime = 0L
+
+        // 最近一次借出的时间
+        internal var checkoutTime = 0L
+
+        // 是否已被移出连接池（连接池缩容时）
+        @Volatile
+        internal var retired = false
+
+        // 被看门狗重建的次数
+        @Volatile
+        var respawns = 0
+            internal set
+
+        // 重建失败后的退避时间，以及下次允许重建的时间
+        internal var backoff = 0L
+        internal var nextRespawnTime = 0L
+
+        // 看门狗上次检查的时间
+        internal var lastCheckTime = 0L
+    }
+
+    class Metrics(
+        val size: Int,
+        val idle: Int,
+        val checkouts: Long,
+        val timeouts: Long,
+        val totalWaitTime: Long,
+        val maxWaitTime: Long,
+        val respawns: Long
+    ) {
+        val averageWaitTime: Long
+            get() = if (checkouts > 0) totalWaitTime / checkouts else 0L
+
+        override fun toString(): String {
+            return "size=$size idle=$idle checkouts=$checkouts timeouts=$timeouts wait(avg/max)=${averageWaitTime}/${maxWaitTime}ms respawns=$respawns"
+        }
+    }
+
+    private val sessions = ArrayList<Session>()
+    private val idleSessions = ArrayBlockingQueue<Session>(MAX_SIZE, true)
+    private var sessionIdSeed = 0
+
+    private val checkouts = AtomicLong(0)
+    private val timeouts = AtomicLong(0)
+    private val totalWaitTime = AtomicLong(0)
+    private val maxWaitTime = AtomicLong(0)
+    private val respawns = AtomicLong(0)
+
+    val size: Int
+        get() = synchronized(sessions) { sessions.size }
+
+    // 是否已预热，预热后扩容新增的会话也会在后台立即启动
+    @Volatile
+    private var warm = false
+
+    @Volatile
+    private var initScript: String? = null
+
+    init {
+        resize(size)
+    }
+
+    /**
+     * 调整连接池大小（扩容立即生效，缩容时正在使用的会话会在归还后退出）
+     */
+    fun resize(size: Int) {
+        val target = size.coerceIn(1, MAX_SIZE)
+        synchronized(sessions) {
+            while (sessions.size < target) {
+                val session = Session(sessionIdSeed++, KeepShell(rootMode))
+                session.shell.setInitScript(initScript)
+                sessions.add(session)
+                idleSessions.offer(session)
+                if (warm) {
+                    Thread { session.shell.warmUp() }.start()
+                }
+            }
+            while (sessions.size > target) {
+                val session = sessions.removeAt(sessions.size - 1)
+                session.retired = true
+                if (idleSessions.remove(session)) {
+                    session.shell.tryExit()
+                }
+            }
+        }
+    }
+
+    /**
+     * 设置所有会话的初始化脚本（见KeepShell.setInitScript），包括之后扩容新增的会话
+     */
+    fun setInitScript(script: String?) {
+        synchronized(sessions) {
+            initScript = script
+            for (session in sessions) {
+                session.shell.setInitScript(script)
+            }
+        }
+    }
+
+    fun getSessions(): List<Session> {
+        return synchronized(sessions) { ArrayList(sessions) }
+    }
+
+    private fun checkout(): Session? {
+        val start = System.currentTimeMillis()
+        val session = idleSessions.poll(CHECKOUT_TIMEOUT, TimeUnit.MILLISECONDS)
+        val waitTime = System.currentTimeMillis() - start
+        if (session == null) {
+            timeouts.incrementAndGet()
+            Log.e("KeepShellPool", "等待空闲会话超时 ${waitTime}ms")
+            return null
+        }
+        checkouts.incrementAndGet()
+        session.waitTime = waitTime
+        session.checkoutTime = System.currentTimeMillis()
+        totalWaitTime.addAndGet(waitTime)
+        while (true) {
+            val max = maxWaitTime.get()
+            if (waitTime <= max || maxWaitTime.compareAndSet(max, waitTime)) {
+                break
+            }
+        }
+        if (!session.healthy) {
+            session.shell.tryExit()
+            session.healthy = true
+        }
+        return session
+    }
+
+    /**
+     * 只在有空闲会话时执行（不等待），没有空闲会话时返回null
+     */
+    fun doCmdIfIdle(cmd: String): ShellResult? {
+        val session = idleSessions.poll() ?: return null
+        checkouts.incrementAndGet()
+        session.waitTime = 0
+        session.checkoutTime = System.currentTimeMillis()
+        if (!session.healthy) {
+            session.shell.tryExit()
+            session.healthy = true
+        }
+        var success = false
+        try {
+            val result = session.shell.doCmdResult(cmd)
+            ShellMetrics.recordShell(name, result)
+            success = isSessionAlive(result)
+            return result
+        } finally {
+            checkin(session, success)
+        }
+    }
+
+    private fun checkin(session: Session, success: Boolean) {
+        session.commands++
+        session.lastUsedTime = System.currentTimeMillis()
+        ShellMetrics.recordLockHold(name, session.lastUsedTime - session.checkoutTime)
+        if (success) {
+            session.failures = 0
+        } else {
+            session.failures++
+            if (session.failures >= MAX_FAILURES) {
+                session.healthy = false
+            }
+        }
+        if (session.retired) {
+            session.shell.tryExit()
+        } else {
+            idleSessions.offer(session)
+        }
+    }
+
+    /**
+     * 借出一个会话执行操作，完成后自动归还
+     * @param isSuccess 根据操作结果判断会话是否仍然可用，返回false时会话被替换
+     */
+    fun <T> use(action: (KeepShell) -> T, isSuccess: (T) -> Boolean): T? {
+        return execute({ action(it.shell) }, isSuccess)
+    }
+
+    // 被取消的命令只结束了自己的子进程，不代表会话异常
+    private fun isSessionAlive(result: ShellResult): Boolean {
+        return !result.isFailed || result.isCancelled
+    }
+
+    private fun <T> execute(action: (Session) -> T, succeed: (T) -> Boolean): T? {
+        val session = checkout() ?: return null
+        var success = false
+        try {
+            val result = action(session)
+            success = succeed(result)
+            return result
+        } finally {
+            checkin(session, success)
+        }
+    }
+
+    //执行脚本
+    fun doCmdSync(cmd: String): String {
+        val result = doCmdResult(cmd)
+        return if (result.isFailed) "error" else result.stdout
+    }
+
+    /**
+     * 执行脚本，返回的排队耗时包含等待连接池借出会话的时间
+     */
+    fun doCmdResult(cmd: String): ShellResult {
+        return execute({ session ->
+            session.shell.doCmdResult(cmd).apply {
+                queueWait += session.waitTime
+                ShellMetrics.recordShell(name, this)
+            }
+        }, { isSessionAlive(it) }) ?: ShellResult.failed()
+    }
+
+    /**
+     * 批量执行命令（在同一个会话中一次往返完成）
+     */
+    fun doCmdBatch(commands: List<String>): List<ShellResult> {
+        return execute({ session ->
+            session.shell.doCmdBatch(commands).onEach {
+                it.queueWait += session.waitTime
+                ShellMetrics.recordShell(name, it)
+            }
+        }, { results -> results.all { isSessionAlive(it) } }) ?: commands.map { ShellResult.failed() }
+    }
+
+    /**
+     * 执行脚本（挂起直到返回结果），等待借出会话时不阻塞调用方线程
+     */
+    suspend fun exec(cmd: String, timeout: Long): ShellResult {
+        var session: Session? = null
+        var success = false
+        try {
+            // 在try中借出，借出后才被取消时也会在finally中归还
+            runInterruptible(Dispatchers.IO) { session = checkout() }
+            val checkedOut = session ?: return ShellResult.failed()
+            val result = checkedOut.shell.exec(cmd, timeout).apply { queueWait += checkedOut.waitTime }
+            ShellMetrics.recordShell(name, result)
+            success = isSessionAlive(result)
+            return result
+        } catch (ex: CancellationException) {
+            // 调用方被取消时命令已被结束，会话本身没有问题
+            success = true
+            throw ex
+        } finally {
+            session?.run { checkin(this, success) }
+        }
+    }
+
+    /**
+     * 执行脚本，逐行返回输出，收集结束前会话保持借出状态
+     */
+    fun execFlow(cmd: String): Flow<String> = flow {
+        val session = checkout() ?: throw IOException("No idle shell session")
+        var success = false
+        try {
+            emitAll(session.shell.execFlow(cmd))
+            success = true
+        } catch (ex: CancellationException) {
+            // 收集方提前结束时命令已被取消，会话本身没有问题
+            success = true
+            throw ex
+        } finally {
+            checkin(session, success)
+        }
+    }.flowOn(Dispatchers.IO)
+
+    fun checkRoot(): Boolean {
+        // 检查失败时KeepShell可能已经退出，会话需要替换
+        return use({ it.checkRoot() }) { it } == true
+    }
+
+    /**
+     * 预热：并行启动所有会话的进程，然后执行一次ROOT检查
+     * @return 是否已获得ROOT权限
+     */
+    fun warmUp(): Boolean {
+        warm = true
+        val threads = getSessions().map { session ->
+            Thread { session.shell.warmUp() }.apply { start() }
+        }
+        for (thread in threads) {
+            thread.join()
+        }
+        return checkRoot()
+    }
+
+    // 直接持有KeepShell的调用方使用的独立会话（不参与连接池轮换，避免与借出的会话冲突）
+    private val dedicatedShell = lazy { KeepShell(rootMode) }
+
+    /**
+     * 获取一个供调用方直接持有的会话（仅用于兼容旧的调用方）
+     * 该会话不在连接池中，不会被借给其它调用方；命令在该会话内按顺序执行
+     */
+    fun getIdleShell(): KeepShell {
+        return dedicatedShell.value
+    }
+
+    /**
+     * 如果会话当前空闲，将其移出空闲队列（供看门狗检查使用，检查完需调用release归还）
+     */
+    internal fun tryAcquire(session: Session): Boolean {
+        return idleSessions.remove(session)
+    }
+
+    internal fun release(session: Session) {
+        if (session.retired) {
+            session.shell.tryExit()
+        } else {
+            idleSessions.offer(session)
+        }
+    }
+
+    internal fun onRespawn(session: Session) {
+        session.respawns++
+        respawns.incrementAndGet()
+    }
+
+    fun getMetrics(): Metrics {
+        return Metrics(
+            size,
+            idleSessions.size,
+            checkouts.get(),
+            timeouts.get(),
+            totalWaitTime.get(),
+            maxWaitTime.get(),
+            respawns.get()
+        )
+    }
+
+    fun tryExit() {
+        for (session in getSessions()) {
+            session.shell.tryExit()
+        }
+        if (dedicatedShell.isInitialized()) {
+            dedicatedShell.value.tryExit()
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.omarea.common.shell
 
+import kotlinx.coroutines.flow.Flow
+
 /**
  * Created by Hello on 2018/01/23.
  */
@@ -38,15 +40,34 @@ object KeepShellPublic {
         }
     }
 
-    val defaultKeepShell = KeepShell()
-    val secondaryKeepShell = KeepShell()
+    private var poolSize = KeepShellPool.DEFAULT_SIZE
+
+    private val poolLazy = lazy { KeepShellPool(poolSize) }
+
+    // 公共的ROOT会话池
+    val pool: KeepShellPool
+        get() = poolLazy.value
+
+    /**
+     * 公共会话池已创建时返回会话池（不会因此创建会话池）
+     */
+    internal fun getCreatedPool(): KeepShellPool? {
+        return if (poolLazy.isInitialized()) poolLazy.value else null
+    }
+
+    // 公共会话池的看门狗（预热完成后启动）
+    val watchdog: KeepShellWatchdog by lazy { KeepShellWatchdog(pool) }
+
+    /**
+     * 设置公共会话池的大小
+     */
+    fun setPoolSize(size: Int) {
+        poolSize = size
+        pool.resize(size)
+    }
 
     fun getDefaultInstance(): KeepShell {
-        return if (defaultKeepShell.isIdle || !secondaryKeepShell.isIdle) {
-            defaultKeepShell
-        } else {
-            secondaryKeepShell
-        }
+        return pool.getIdleShell()
     }
 
     fun doCmdSync(commands: List<String>): Boolean {
@@ -62,16 +83,44 @@ object KeepShellPublic {
 
     //执行脚本
     fun doCmdSync(cmd: String): String {
-        return getDefaultInstance().doCmdSync(cmd)
+        return pool.doCmdSync(cmd)
+    }
+
+    /**
+     * 执行脚本，返回包含输出、错误输出、退出状态和耗时的结果
+     */
+    fun doCmdResult(cmd: String): ShellResult {
+        return pool.doCmdResult(cmd)
+    }
+
+    /**
+     * 执行脚本（挂起直到返回结果）
+     * @param timeout 超时时间（毫秒）
+     */
+    suspend fun exec(cmd: String, timeout: Long = 30000L): ShellResult {
+        return pool.exec(cmd, timeout)
+    }
+
+    /**
+     * 执行脚本，逐行返回输出
+     */
+    fun execFlow(cmd: String): Flow<String> {
+        return pool.execFlow(cmd)
+    }
+
+    /**
+     * 批量执行命令，所有命令通过一次写入发送，并分别返回每个命令的输出
+     */
+    fun doCmdBatch(commands: List<String>): List<ShellResult> {
+        return pool.doCmdBatch(commands)
     }
 
     //执行脚本
     fun checkRoot(): Boolean {
-        return defaultKeepShell.checkRoot()
+        return pool.checkRoot()
     }
 
     fun tryExit() {
-        defaultKeepShell.tryExit()
-        secondaryKeepShell.tryExit()
+        pool.tryExit()
     }
 }
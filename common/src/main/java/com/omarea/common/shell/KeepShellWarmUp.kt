@@ -0,0 +1,94 @@
+package com.omarea.common.shell
+
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.util.concurrent.Callable
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+
+/**
+ * 公共ROOT会话池预热
+ * 在应用启动时于后台并行启动所有会话并执行一次ROOT检查，使su启动、授权等待与配置解析等工作同时进行
+ * 预热完成后启动看门狗和ROOT辅助进程
+ */
+object KeepShellWarmUp {
+    // 两次重新检查ROOT权限之间的最小间隔，避免连续弹出授权提示
+    private const val RETRY_INTERVAL = 10000L
+
+    @Volatile
+    private var task: FutureTask<Boolean>? = null
+    private var finishedTime = 0L
+
+    /**
+     * 开始预热（重复调用返回同一个任务，未获得ROOT权限的结果同样会被保留，直到调用retry）
+     * @return 预热完成后得到是否已获得ROOT权限
+     */
+    fun start(): Future<Boolean> {
+        synchronized(this) {
+            task?.run { return this }
+
+            val warmUp = object : FutureTask<Boolean>(Callable {
+                val rooted = KeepShellPublic.pool.warmUp()
+                // 获得ROOT权限后才需要看门狗维持会话
+                if (rooted) {
+                    KeepShellPublic.watchdog.start()
+                    // ROOT辅助进程单独启动，不延迟预热结果
+                    Thread({ RootHelper.warmUp() }, "RootHelperWarmUp").start()
+                }
+                rooted
+            }) {
+                override fun done() {
+                    synchronized(this@KeepShellWarmUp) {
+                        finishedTime = System.currentTimeMillis()
+                    }
+                }
+            }
+            task = warmUp
+            Thread(warmUp, "KeepShellWarmUp").start()
+            return warmUp
+        }
+    }
+
+    /**
+     * 重新检查ROOT权限（只应由用户的操作触发，例如重新打开应用）
+     * 上次未获得ROOT权限且距离上次检查超过RETRY_INTERVAL时重新预热，否则返回上次的任务
+     */
+    fun retry(): Future<Boolean> {
+        synchronized(this) {
+            task?.run {
+                val rooted = try {
+                    isDone && get()
+                } catch (ex: Exception) {
+                    false
+                }
+                if (!isDone || rooted || System.currentTimeMillis() - finishedTime < RETRY_INTERVAL) {
+                    return this
+                }
+            }
+            task = null
+            return start()
+        }
+    }
+
+    // 是否已完成预热并获得ROOT权限
+    val isReady: Boolean
+        get() = task?.isDone == true
+
+    /**
+     * 等待预热完成（尚未开始时会立即开始），返回是否已获得ROOT权限
+     * 会阻塞调用方线程，不要在主线程调用
+     */
+    fun awaitRoot(): Boolean {
+        return try {
+            start().get()
+        } catch (ex: Exception) {
+            Log.e("KeepShellWarmUp", "" + ex.message)
+            false
+        }
+    }
+
+    suspend fun await(): Boolean {
+        return withContext(Dispatchers.IO) { awaitRoot() }
+    }
+}
@@ -0,0 +1,98 @@
+package com.omarea.common.shell
+
+import android.util.Log
+import java.util.Timer
+import java.util.TimerTask
+
+/**
+ * 会话看门狗
+ * 定期对空闲会话做心跳检测，发现进程已退出、无响应或被标记为不健康的会话时在后台重建，
+ * 重建失败按指数退避重试，避免由用户的下一次操作来承担检测和重建的耗时
+ */
+class KeepShellWatchdog(private val pool: KeepShellPool, private val interval: Long = DEFAULT_INTERVAL) {
+    companion object {
+        // 心跳检测间隔（最近使用过的会话不需要检测）
+        const val DEFAULT_INTERVAL = 15000L
+
+        // 检查是否有需要处理的会话的频率
+        private const val TICK = 1000L
+
+        private const val HEARTBEAT_TIMEOUT = 3000L
+        private const val MIN_BACKOFF = 1000L
+        private const val MAX_BACKOFF = 60000L
+    }
+
+    private var timer: Timer? = null
+
+    fun start() {
+        synchronized(this) {
+            if (timer != null) {
+                return
+            }
+            timer = Timer("KeepShellWatchdog", true).apply {
+                schedule(object : TimerTask() {
+                    override fun run() {
+                        check()
+                    }
+                }, TICK, TICK)
+            }
+        }
+    }
+
+    fun stop() {
+        synchronized(this) {
+            timer?.cancel()
+            timer = null
+        }
+    }
+
+    private fun check() {
+        for (session in pool.getSessions()) {
+            val now = System.currentTimeMillis()
+            val respawnPending = session.nextRespawnTime > 0
+            if (respawnPending) {
+                if (now < session.nextRespawnTime) {
+                    continue
+                }
+            } else if (session.healthy && (now - session.lastCheckTime < interval || now - session.lastUsedTime < interval)) {
+                continue
+            }
+
+            // 会话正在被使用时跳过，下一轮再检查
+            if (!pool.tryAcquire(session)) {
+                continue
+            }
+            try {
+                session.lastCheckTime = now
+                val shell = session.shell
+                if (respawnPending || !session.healthy) {
+                    respawn(session)
+                } else if (shell.isStarted && !shell.heartbeat(HEARTBEAT_TIMEOUT)) {
+                    Log.e("KeepShellWatchdog", "会话${session.id}无响应或进程已退出，重建")
+                    respawn(session)
+                }
+            } catch (ex: Exception) {
+                Log.e("KeepShellWatchdog", "" + ex.message)
+            } finally {
+                pool.release(session)
+            }
+        }
+    }
+
+    private fun respawn(session: KeepShellPool.Session) {
+        val shell = session.shell
+        shell.tryExit()
+        pool.onRespawn(session)
+        if (shell.warmUp() && shell.heartbeat(HEARTBEAT_TIMEOUT)) {
+            session.healthy = true
+            session.failures = 0
+            session.backoff = 0
+            session.nextRespawnTime = 0
+        } else {
+            shell.tryExit()
+            session.backoff = if (session.backoff == 0L) MIN_BACKOFF else (session.backoff * 2).coerceAtMost(MAX_BACKOFF)
+            session.nextRespawnTime = System.currentTimeMillis() + session.backoff
+            Log.e("KeepShellWatchdog", "会话${session.id}重建失败，${session.backoff}ms后重试")
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.omarea.common.shell
+
+/**
+ * 一组内核参数节点的值（调优配置）
+ * 应用时先记录各节点的原值，然后在一次往返中写入所有节点并逐个读回校验，可以回滚到应用前的值
+ */
+class KernelProfile {
+    /**
+     * 单个节点的写入结果
+     */
+    class NodeResult(
+        val path: String,
+        // 期望写入的值
+        val expected: String,
+        // 写入后读回的值
+        val actual: String,
+        // 写入命令的退出状态码
+        val exitCode: Int
+    ) {
+        // 读回的值与期望的值一致（列表类节点按方括号中选中的项或逐项比较）
+        val isMatched: Boolean
+            get() = matches(expected, actual)
+
+        // 写入被接受，但内核调整了数值（例如超出范围被限制到最大值）
+        val isAdjusted: Boolean
+            get() = exitCode == 0 && !isMatched && isNumber(expected) && isNumber(actual)
+
+        val isSucceed: Boolean
+            get() = exitCode == 0 && (isMatched || isAdjusted)
+    }
+
+    class Result(
+        val nodes: List<NodeResult>,
+        // 应用前各节点的值（可用于回滚）
+        val previous: KernelProfile
+    ) {
+        val failures: List<NodeResult>
+            get() = nodes.filter { !it.isSucceed }
+
+        val isSucceed: Boolean
+            get() = nodes.all { it.isSucceed }
+
+        /**
+         * 回滚到应用前的值
+         * 只回滚本次确实可以写入的节点，原值的格式与写入的格式不同（无法原样写回）的节点会被跳过
+         */
+        fun rollback(): Result {
+            val profile = KernelProfile()
+            for (node in nodes) {
+                // 写入失败的节点值没有被修改，也无法写入
+                if (node.exitCode != 0) {
+                    continue
+                }
+                val value = previous.get(node.path) ?: continue
+                writableValue(value, node.expected)?.run {
+                    profile.set(node.path, this)
+                }
+            }
+            return profile.apply()
+        }
+    }
+
+    companion object {
+        /**
+         * 读取节点当前的值，生成配置（不存在或无法读取的节点会被忽略）
+         */
+        @JvmStatic
+        fun capture(paths: Collection<String>): KernelProfile {
+            val list = paths.toList()
+            val profile = KernelProfile()
+            val results = KernelProrp.getProps(list)
+            for (i in list.indices) {
+                val result = results[i]
+                if (!result.isFailed && result.stdout.isNotEmpty()) {
+                    profile.set(list[i], result.stdout)
+                }
+            }
+            return profile
+        }
+
+        private val whitespace = Regex("\\s+")
+
+        // 列表类节点（如 noop [cfq] deadline）读回时用方括号标记当前选中的项
+        private fun selected(value: String): String? {
+            val start = value.indexOf('[')
+            val end = value.indexOf(']', start + 1)
+            if (start < 0 || end < 0) {
+                return null
+            }
+            return value.substring(start + 1, end).trim()
+        }
+
+        private fun tokens(value: String): List<String> {
+            return value.trim().split(whitespace).filter { it.isNotEmpty() }
+        }
+
+        private fun isNumber(value: String): Boolean {
+            return value.toLongOrNull() != null
+        }
+
+        private fun matches(expected: String, actual: String): Boolean {
+            if (actual == expected) {
+                return true
+            }
+            val selected = selected(actual)
+            if (selected != null) {
+                return selected == expected
+            }
+            return tokens(actual) == tokens(expected)
+        }
+
+        // 将读取到的原值转换为可以写回的格式，无法转换时返回null
+        private fun writableValue(value: String, written: String): String? {
+            selected(value)?.run {
+                return this
+            }
+            return if (tokens(value).size == tokens(written).size) value else null
+        }
+
+        // 用单引号包裹，避免值或路径中的特殊字符被Shell解释
+        private fun quote(value: String): String {
+            return "'" + value.replace("'", "'\\''") + "'"
+        }
+
+        // 写入节点后读回当前值，退出状态码为写入命令的状态码
+        private fun writeCommand(path: String, value: String): String {
+            val p = quote(path)
+            return "chmod 664 $p 2>/dev/null\n" +
+                    "echo ${quote(value)} > $p\n" +
+                    "__KP_STATUS=\$?\n" +
+                    "cat $p 2>/dev/null\n" +
+                    "(exit \$__KP_STATUS)"
+        }
+    }
+
+    private val values = LinkedHashMap<String, String>()
+
+    val paths: Set<String>
+        get() = values.keys
+
+    fun set(path: String, value: String): KernelProfile {
+        values[path] = value.trim()
+        return this
+    }
+
+    fun get(path: String): String? {
+        return values[path]
+    }
+
+    fun remove(path: String): KernelProfile {
+        values.remove(path)
+        return this
+    }
+
+    val isEmpty: Boolean
+        get() = values.isEmpty()
+
+    /**
+     * 应用配置：记录原值，在一次往返中写入所有节点并读回校验
+     * @param rollbackOnFailure 有节点写入失败时，是否立即回滚所有节点
+     */
+    @JvmOverloads
+    fun apply(rollbackOnFailure: Boolean = false): Result {
+        if (values.isEmpty()) {
+            return Result(emptyList(), KernelProfile())
+        }
+        val previous = capture(values.keys)
+
+        val entries = values.entries.toList()
+        val results = KeepShellPublic.doCmdBatch(entries.map { writeCommand(it.key, it.value) })
+        val nodes = entries.indices.map {
+            val result = results[it]
+            NodeResult(entries[it].key, entries[it].value, result.stdout.trim(), result.exitCode)
+        }
+        val applied = Result(nodes, previous)
+        if (rollbackOnFailure && !applied.isSucceed) {
+            applied.rollback()
+        }
+        return applied
+    }
+
+    override fun toString(): String {
+        return values.entries.joinToString("\n") { "${it.key}=${it.value}" }
+    }
+}
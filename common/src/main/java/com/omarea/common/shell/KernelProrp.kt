@@ -11,11 +11,80 @@ object KernelProrp {
      * @return
      */
     fun getProp(propName: String): String {
-        return KeepShellPublic.doCmdSync("if [[ -e \"$propName\" ]]; then cat \"$propName\"; fi;")
+        return SysfsReader.read(propName) ?: RootHelper.readText(propName) ?: KeepShellPublic.doCmdSync(getPropCommand(propName))
     }
 
+    /**
+     * 获取属性（包含退出状态和错误输出）
+     * @param propName 属性名称
+     */
+    fun getPropResult(propName: String): ShellResult {
+        val value = SysfsReader.read(propName) ?: RootHelper.readText(propName)
+        if (value != null) {
+            return ShellResult(value, 0)
+        }
+        return KeepShellPublic.doCmdResult(getPropCommand(propName))
+    }
+
+    private fun getPropCommand(propName: String): String {
+        return "if [[ -e \"$propName\" ]]; then cat \"$propName\"; fi;"
+    }
+
+    /**
+     * 批量获取属性（一次往返读取所有节点）
+     * @param propNames 属性名称列表
+     * @return 与propNames顺序一致的结果
+     */
+    fun getProps(propNames: List<String>): List<ShellResult> {
+        val results = arrayOfNulls<ShellResult>(propNames.size)
+        // 能直接读取的节点不经过ROOT，其余的先通过ROOT辅助进程一次批量读取，仍读取失败的再合并为一次ROOT会话往返
+        var rootIndexes = ArrayList<Int>()
+        for (i in propNames.indices) {
+            val value = SysfsReader.read(propNames[i])
+            if (value != null) {
+                results[i] = ShellResult(value, 0)
+            } else {
+                rootIndexes.add(i)
+            }
+        }
+        if (rootIndexes.isNotEmpty()) {
+            val helperResults = RootHelper.readTexts(rootIndexes.map { propNames[it] })
+            if (helperResults != null) {
+                val failed = ArrayList<Int>()
+                for (i in rootIndexes.indices) {
+                    val value = helperResults[i]
+                    if (value != null) {
+                        results[rootIndexes[i]] = ShellResult(value, 0)
+                    } else {
+                        failed.add(rootIndexes[i])
+                    }
+                }
+                rootIndexes = failed
+            }
+        }
+        if (rootIndexes.isNotEmpty()) {
+            val rootResults = KeepShellPublic.doCmdBatch(rootIndexes.map { getPropCommand(propNames[it]) })
+            for (i in rootIndexes.indices) {
+                results[rootIndexes[i]] = rootResults[i]
+            }
+        }
+        return results.map { it!! }
+    }
+
+    /**
+     * 获取属性中匹配grep（扩展正则表达式，如 ^cpu）的行
+     * 直接读取时使用Regex，通过ROOT会话读取时使用grep -E，两种方式的匹配规则一致
+     */
     fun getProp(propName: String, grep: String): String {
-        return KeepShellPublic.doCmdSync("if [[ -e \"$propName\" ]]; then cat \"$propName\" | grep \"$grep\"; fi;")
+        val value = SysfsReader.read(propName) ?: RootHelper.readText(propName)
+        if (value != null) {
+            try {
+                val regex = Regex(grep)
+                return value.lineSequence().filter { regex.containsMatchIn(it) }.joinToString("\n")
+            } catch (_: Exception) {
+            }
+        }
+        return KeepShellPublic.doCmdSync("if [[ -e \"$propName\" ]]; then cat \"$propName\" | grep -E \"$grep\"; fi;")
     }
 
     /**
@@ -24,9 +93,12 @@ object KernelProrp {
      * @param value    属性值,值尽量是简单的数字或字母，避免出现错误
      */
     fun setProp(propName: String, value: String): Boolean {
-        return KeepShellPublic.doCmdSync(
+        if (RootHelper.write(propName, "$value\n".toByteArray())) {
+            return true
+        }
+        return KeepShellPublic.doCmdResult(
                 "chmod 664 \"$propName\" 2 > /dev/null\n" +
                 "echo \"$value\" > \"$propName\""
-        ) != "error"
+        ).isSucceed
     }
 }
\ No newline at end of file
@@ -0,0 +1,294 @@
+package com.omarea.common.shell
+
+import android.os.Build
+import android.system.Os
+import android.system.OsConstants
+import android.system.StructPollfd
+import android.util.Log
+import java.io.ByteArrayOutputStream
+import java.io.FileInputStream
+import java.io.InputStream
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 共享的进程输出读取器：由少量固定的线程轮询所有正在运行的进程的输出（stdout、stderr）和退出状态
+ * 替代每个进程单独使用的三个线程（两个读取线程 + 一个waitFor线程），同时运行多个任务时不再创建大量线程
+ * 只读取已到达的数据（available），不会因某个进程没有输出而阻塞其它进程
+ * 持续没有输出时轮询间隔逐渐增加到MAX_IDLE_WAIT，长时间运行但很少输出的进程不会频繁唤醒读取线程
+ * 进程结束后继续读取，直到输出流都已结束（后台子进程仍可能在写入），最多再等待EXIT_GRACE
+ */
+object ProcessIoDispatcher {
+    /**
+     * onOutput、onError在共享的读取线程中执行，会延迟所有进程的输出读取，不能阻塞（更新界面需自行post到主线程）
+     * 执行时间超过SLOW_CALLBACK时会输出警告
+     * onExit在单独的线程池中执行，可以进行耗时操作（例如启动下一个进程并等待其结束）
+     */
+    interface Listener {
+        // 读取到一行标准输出（不包含换行符）
+        fun onOutput(line: String)
+
+        // 读取到一行错误输出（不包含换行符）
+        fun onError(line: String)
+
+        // 进程已结束，剩余的输出已全部读取
+        fun onExit(status: Int)
+    }
+
+    // 读取线程数
+    private const val LOOPS = 2
+
+    // 没有新数据时的轮询间隔（毫秒），持续空闲时逐渐增加到上限
+    private const val MIN_IDLE_WAIT = 5L
+    private const val MAX_IDLE_WAIT = 250L
+
+    // 输出回调超过此耗时（毫秒）时输出警告
+    private const val SLOW_CALLBACK = 50L
+
+    // 执行onExit回调的线程池（线程空闲一段时间后自动结束）
+    private val exitExecutor: ExecutorService = Executors.newCachedThreadPool { runnable ->
+        Thread(runnable, "ProcessIoExit").apply { isDaemon = true }
+    }
+
+    // 进程结束后，等待后台子进程关闭输出流的最长时间（毫秒）
+    private const val EXIT_GRACE = 2000L
+
+    private const val BUFFER_SIZE = 8192
+
+    private class LineReader(private val stream: InputStream, private val onLine: (String) -> Unit) {
+        private val line = ByteArrayOutputStream()
+
+        // 输出流已结束（所有写入端都已关闭）
+        var isEof = false
+            private set
+
+        /**
+         * 读取已到达的数据
+         * @return 是否读取到数据
+         */
+        fun poll(buffer: ByteArray): Boolean {
+            var received = false
+            while (!isEof) {
+                val available = try {
+                    stream.available()
+                } catch (ex: Exception) {
+                    isEof = true
+                    0
+                }
+                if (available <= 0) {
+                    return received
+                }
+                val length = try {
+                    stream.read(buffer, 0, minOf(available, buffer.size))
+                } catch (ex: Exception) {
+                    -1
+                }
+                if (length <= 0) {
+                    isEof = true
+                    return received
+                }
+                received = true
+                var start = 0
+                for (i in 0 until length) {
+                    if (buffer[i] == '\n'.code.toByte()) {
+                        line.write(buffer, start, i - start)
+                        emit()
+                        start = i + 1
+                    }
+                }
+                line.write(buffer, start, length - start)
+            }
+            return received
+        }
+
+        /**
+         * 不阻塞地检查输出流是否已结束（管道的写入端都已关闭且没有剩余数据）
+         * 无法获取文件描述符时返回false，由调用方按超时处理
+         */
+        fun checkEof(): Boolean {
+            if (isEof) {
+                return true
+            }
+            val fd = (stream as? FileInputStream)?.fd ?: return false
+            try {
+                val pollFd = StructPollfd()
+                pollFd.fd = fd
+                pollFd.events = OsConstants.POLLIN.toShort()
+                if (Os.poll(arrayOf(pollFd), 0) > 0 &&
+                        (pollFd.revents.toInt() and OsConstants.POLLHUP) != 0 &&
+                        stream.available() <= 0) {
+                    isEof = true
+                }
+            } catch (ex: Exception) {
+                isEof = true
+            }
+            return isEof
+        }
+
+        fun close() {
+            try {
+                stream.close()
+            } catch (_: Exception) {
+            }
+        }
+
+        // 输出结束时，最后一行可能没有换行符
+        fun finish() {
+            if (line.size() > 0) {
+                emit()
+            }
+        }
+
+        private fun emit() {
+            var text = String(line.toByteArray(), Charsets.UTF_8)
+            line.reset()
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length - 1)
+            }
+            val start = System.currentTimeMillis()
+            try {
+                onLine(text)
+            } catch (ex: Exception) {
+                Log.e("ProcessIoDispatcher", "" + ex.message)
+            }
+            val time = System.currentTimeMillis() - start
+            if (time > SLOW_CALLBACK) {
+                Log.w("ProcessIoDispatcher", "Output callback blocked the reader for ${time}ms")
+            }
+        }
+    }
+
+    private class Watch(val process: Process, val listener: Listener) {
+        val output = LineReader(process.inputStream) { listener.onOutput(it) }
+        val error = LineReader(process.errorStream) { listener.onError(it) }
+
+        // 进程结束的时间（0表示尚未结束）
+        var exitTime = 0L
+    }
+
+    private class Loop(name: String) : Thread(name) {
+        // 新加入的进程
+        private val pending = LinkedBlockingQueue<Watch>()
+        // 正在读取的进程（只在本线程中访问）
+        private val watches = ArrayList<Watch>()
+        private val count = AtomicInteger(0)
+
+        init {
+            isDaemon = true
+        }
+
+        val size: Int
+            get() = count.get()
+
+        fun add(watch: Watch) {
+            count.incrementAndGet()
+            pending.add(watch)
+            interrupt()
+        }
+
+        override fun run() {
+            val buffer = ByteArray(BUFFER_SIZE)
+            var idleWait = MIN_IDLE_WAIT
+            while (true) {
+                try {
+                    if (watches.isEmpty()) {
+                        // 没有需要读取的进程时等待新的进程加入
+                        watches.add(pending.take())
+                    }
+                } catch (ex: InterruptedException) {
+                    continue
+                }
+                pending.drainTo(watches)
+
+                var received = false
+                val iterator = watches.iterator()
+                while (iterator.hasNext()) {
+                    val watch = iterator.next()
+                    // 先判断是否已结束，结束前到达的输出都会在下面读取完
+                    if (watch.exitTime == 0L && hasExited(watch.process)) {
+                        watch.exitTime = System.currentTimeMillis()
+                    }
+                    if (watch.output.poll(buffer)) {
+                        received = true
+                    }
+                    if (watch.error.poll(buffer)) {
+                        received = true
+                    }
+                    // 进程结束后，输出流都已结束（或超过等待时间）才完成
+                    if (watch.exitTime > 0 && (
+                                (watch.output.checkEof() && watch.error.checkEof()) ||
+                                System.currentTimeMillis() - watch.exitTime > EXIT_GRACE)) {
+                        iterator.remove()
+                        count.decrementAndGet()
+                        finish(watch)
+                    }
+                }
+
+                if (received) {
+                    idleWait = MIN_IDLE_WAIT
+                } else if (watches.isNotEmpty()) {
+                    try {
+                        sleep(idleWait)
+                        idleWait = minOf(idleWait * 2, MAX_IDLE_WAIT)
+                    } catch (ex: InterruptedException) {
+                        // 有新的进程加入
+                        idleWait = MIN_IDLE_WAIT
+                    }
+                }
+            }
+        }
+
+        private fun finish(watch: Watch) {
+            watch.output.finish()
+            watch.error.finish()
+            watch.output.close()
+            watch.error.close()
+            val status = try {
+                watch.process.exitValue()
+            } catch (ex: Exception) {
+                -1
+            }
+            // 退出回调可能执行耗时操作，不在读取线程中执行（输出回调已全部完成，顺序不变）
+            exitExecutor.execute {
+                try {
+                    watch.listener.onExit(status)
+                } catch (ex: Exception) {
+                    Log.e("ProcessIoDispatcher", "" + ex.message)
+                }
+            }
+        }
+    }
+
+    private var loops: Array<Loop>? = null
+
+    @Synchronized
+    private fun getLoops(): Array<Loop> {
+        loops?.run {
+            return this
+        }
+        val created = Array(LOOPS) { Loop("ProcessIo-$it").apply { start() } }
+        loops = created
+        return created
+    }
+
+    /**
+     * 开始读取进程的输出，进程结束后回调onExit
+     */
+    fun watch(process: Process, listener: Listener) {
+        getLoops().minByOrNull { it.size }!!.add(Watch(process, listener))
+    }
+
+    private fun hasExited(process: Process): Boolean {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return !process.isAlive
+        }
+        return try {
+            process.exitValue()
+            true
+        } catch (ex: IllegalThreadStateException) {
+            false
+        }
+    }
+}
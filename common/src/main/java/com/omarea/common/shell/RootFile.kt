@@ -8,24 +8,62 @@ import com.omarea.common.shared.RootFileInfo
  */
 
 object RootFile {
+    // 通过ROOT辅助进程检查，辅助进程不可用时返回null
+    private fun test(flag: String, path: String): Boolean? {
+        val stat = RootHelper.stat(path) ?: return null
+        return when (flag) {
+            "-f" -> stat.isFile
+            "-d" -> stat.isDirectory
+            else -> stat.exists
+        }
+    }
+
     fun itemExists(path: String): Boolean {
-        return KeepShellPublic.doCmdSync("if [[ -e \"$path\" ]]; then echo 1; fi;") == "1"
+        return test("-e", path) ?: KeepShellPublic.doCmdResult("[[ -e \"$path\" ]]").isSucceed
     }
 
     fun fileExists(path: String): Boolean {
-        return KeepShellPublic.doCmdSync("if [[ -f \"$path\" ]]; then echo 1; fi;") == "1"
+        return test("-f", path) ?: KeepShellPublic.doCmdResult("[[ -f \"$path\" ]]").isSucceed
+    }
+
+    private fun testAll(flag: String, paths: List<String>): List<Boolean> {
+        if (RootHelper.isAvailable) {
+            val results = paths.map { test(flag, it) }
+            if (results.all { it != null }) {
+                return results.map { it!! }
+            }
+        }
+        return KeepShellPublic.doCmdBatch(paths.map { "[[ $flag \"$it\" ]]" }).map { it.isSucceed }
+    }
+
+    // 批量检查（一次往返），返回结果与paths顺序一致
+    fun itemsExist(paths: List<String>): List<Boolean> {
+        return testAll("-e", paths)
+    }
+
+    fun filesExist(paths: List<String>): List<Boolean> {
+        return testAll("-f", paths)
+    }
+
+    fun dirsExist(paths: List<String>): List<Boolean> {
+        return testAll("-d", paths)
     }
 
     fun fileNotEmpty(path: String): Boolean {
-        return KeepShellPublic.doCmdSync("if [[ -f \"$path\" ]] && [[ -s \"$path\" ]]; then echo 1; fi;") == "1"
+        RootHelper.stat(path)?.run {
+            return isFile && size > 0
+        }
+        return KeepShellPublic.doCmdResult("[[ -f \"$path\" ]] && [[ -s \"$path\" ]]").isSucceed
     }
 
     fun dirExists(path: String): Boolean {
-        return KeepShellPublic.doCmdSync("if [[ -d \"$path\" ]]; then echo 1; fi;") == "1"
+        return test("-d", path) ?: KeepShellPublic.doCmdResult("[[ -d \"$path\" ]]").isSucceed
     }
 
     fun deleteDirOrFile(path: String) {
-        KeepShellPublic.doCmdSync("rm -rf \"$path\"")
+        if (!RootHelper.delete(path)) {
+            KeepShellPublic.doCmdSync("rm -rf \"$path\"")
+        }
     }
 
     // 通过MD5比对两个文件是否相同
@@ -82,11 +120,22 @@ object RootFile {
     fun list(path: String): ArrayList<RootFileInfo> {
         val absPath = if (path.endsWith("/")) path.subSequence(0, path.length - 1).toString() else path
         val files = ArrayList<RootFileInfo>()
+        RootHelper.list(absPath)?.run {
+            for (entry in this) {
+                files.add(RootFileInfo().apply {
+                    filePath = entry.name
+                    parentDir = absPath
+                    isDirectory = entry.stat.isDirectory
+                    fileSize = entry.stat.size
+                })
+            }
+            return files
+        }
         if (dirExists(absPath)) {
-            val outputInfo = KeepShellPublic.doCmdSync("busybox ls -1Fs \"$absPath\"")
-            Log.d(">>>> files", outputInfo)
-            if (outputInfo != "error") {
-                val rows = outputInfo.split("\n")
+            val result = KeepShellPublic.doCmdResult("busybox ls -1Fs \"$absPath\"")
+            Log.d(">>>> files", result.stdout)
+            if (!result.isFailed) {
+                val rows = result.stdout.split("\n")
                 for (row in rows) {
                     val file = shellFileInfoRow(row, absPath)
                     if (file != null) {
@@ -105,10 +154,21 @@ object RootFile {
 
     fun fileInfo(path: String): RootFileInfo? {
         val absPath = if (path.endsWith("/")) path.subSequence(0, path.length - 1).toString() else path
-        val outputInfo = KeepShellPublic.doCmdSync("busybox ls -1dFs \"$absPath\"")
-        Log.d(">>>> file", outputInfo)
-        if (outputInfo != "error") {
-            val rows = outputInfo.split("\n")
+        RootHelper.stat(absPath)?.run {
+            if (!exists) {
+                return null
+            }
+            return RootFileInfo().also {
+                it.filePath = absPath.substring(absPath.lastIndexOf("/") + 1)
+                it.parentDir = absPath.take(absPath.lastIndexOf("/"))
+                it.isDirectory = isDirectory
+                it.fileSize = size
+            }
+        }
+        val result = KeepShellPublic.doCmdResult("busybox ls -1dFs \"$absPath\"")
+        Log.d(">>>> file", result.stdout)
+        if (!result.isFailed) {
+            val rows = result.stdout.split("\n")
             for (row in rows) {
                 val file = shellFileInfoRow(row, absPath)
                 if (file != null) {
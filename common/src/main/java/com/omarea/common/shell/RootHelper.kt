@@ -0,0 +1,284 @@
+package com.omarea.common.shell
+
+import android.content.Context
+import android.util.Log
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+
+/**
+ * 常驻ROOT辅助进程的客户端
+ * 通过 su 启动一次 app_process（运行RootHelperServer），之后文件读写、状态查询等操作都以二进制协议完成，不再经过Shell解释和输出解析
+ * 辅助进程只由KeepShellWarmUp在确认已获得ROOT权限后启动，调用方的线程不会触发su
+ * 辅助进程不可用（未获得ROOT、尚未启动、启动失败等）时，各方法立即返回null或false，调用方应回退到ROOT会话
+ */
+object RootHelper {
+    // 等待辅助进程启动的超时时间
+    private const val START_TIMEOUT = 10000L
+
+    class Stat(val type: Byte, val size: Long, val lastModified: Long) {
+        val exists: Boolean
+            get() = type != RootHelperServer.TYPE_NONE
+
+        val isFile: Boolean
+            get() = type == RootHelperServer.TYPE_FILE
+
+        val isDirectory: Boolean
+            get() = type == RootHelperServer.TYPE_DIRECTORY
+    }
+
+    class Entry(val name: String, val stat: Stat)
+
+    private class Response(val status: Byte, val payload: ByteArray) {
+        val isSucceed: Boolean
+            get() = status == RootHelperServer.STATUS_OK
+    }
+
+    private var apkPath: String? = null
+    private var process: Process? = null
+    private var input: DataInputStream? = null
+    private var output: DataOutputStream? = null
+    private var requestId = 0
+
+    // 正在启动（启动过程不持有锁，期间的调用直接返回null）
+    private var starting = false
+
+    // 已确认ROOT权限但尚未设置APK路径，init之后再启动
+    private var startPending = false
+
+    /**
+     * 设置辅助进程使用的APK路径
+     */
+    fun init(context: Context) {
+        val start = synchronized(this) {
+            if (apkPath == null) {
+                apkPath = context.applicationContext.packageCodePath
+            }
+            startPending.also { startPending = false }
+        }
+        if (start) {
+            Thread({ warmUp() }, "RootHelperWarmUp").start()
+        }
+    }
+
+    /**
+     * 在当前线程启动辅助进程（已启动或正在启动时直接返回）
+     * 只应在确认已获得ROOT权限后调用（由KeepShellWarmUp调用）
+     * @return 辅助进程是否可用
+     */
+    fun warmUp(): Boolean {
+        val apk = synchronized(this) {
+            if (process != null) {
+                return true
+            }
+            if (starting) {
+                return false
+            }
+            val apk = apkPath
+            if (apk == null) {
+                startPending = true
+                return false
+            }
+            starting = true
+            apk
+        }
+        var started: Process? = null
+        try {
+            started = Runtime.getRuntime().exec("su")
+            val writer = started.outputStream
+            writer.write("export CLASSPATH=\"$apk\"\nexec app_process /system/bin ${RootHelperServer::class.java.name}\n".toByteArray())
+            writer.flush()
+
+            val stdout = DataInputStream(started.inputStream.buffered())
+            val handshake = FutureTask { stdout.readInt() }
+            Thread(handshake, "RootHelperStart").start()
+            if (handshake.get(START_TIMEOUT, TimeUnit.MILLISECONDS) != RootHelperServer.MAGIC) {
+                throw IOException("Invalid handshake")
+            }
+            // 辅助进程的错误输出只用于调试，需要持续读取，避免缓冲区写满后阻塞
+            val stderr = started.errorStream
+            Thread({
+                try {
+                    stderr.bufferedReader().forEachLine { Log.e("RootHelper", it) }
+                } catch (_: Exception) {
+                }
+            }, "RootHelperStderr").start()
+
+            synchronized(this) {
+                process = started
+                input = stdout
+                output = DataOutputStream(started.outputStream.buffered())
+                starting = false
+            }
+            return true
+        } catch (ex: Exception) {
+            Log.e("RootHelper", "Start failed: " + ex.message)
+            started?.destroy()
+            synchronized(this) {
+                starting = false
+            }
+            return false
+        }
+    }
+
+    val isAvailable: Boolean
+        get() = synchronized(this) { process != null }
+
+    private fun stop() {
+        try {
+            output?.close()
+        } catch (_: Exception) {
+        }
+        process?.destroy()
+        process = null
+        input = null
+        output = null
+    }
+
+    // 发送一个请求并等待响应，辅助进程不可用时返回null
+    private fun call(op: Byte, path: String, data: ByteArray = ByteArray(0)): Response? {
+        synchronized(this) {
+            if (process == null) {
+                return null
+            }
+            try {
+                val id = ++requestId
+                output!!.run {
+                    writeInt(id)
+                    writeByte(op.toInt())
+                    writeUTF(path)
+                    writeInt(data.size)
+                    write(data)
+                    flush()
+                }
+                input!!.run {
+                    if (readInt() != id) {
+                        throw IOException("Response out of order")
+                    }
+                    val status = readByte()
+                    val payload = ByteArray(readInt())
+                    readFully(payload)
+                    return Response(status, payload)
+                }
+            } catch (ex: Exception) {
+                Log.e("RootHelper", "Call failed: " + ex.message)
+                stop()
+                return null
+            }
+        }
+    }
+
+    private fun readStat(reader: DataInputStream): Stat {
+        return Stat(reader.readByte(), reader.readLong(), reader.readLong())
+    }
+
+    /**
+     * 读取文件内容（文件不存在时返回空内容）
+     * @return 辅助进程不可用或读取失败时返回null
+     */
+    fun read(path: String): ByteArray? {
+        val response = call(RootHelperServer.OP_READ, path) ?: return null
+        return if (response.isSucceed) response.payload else null
+    }
+
+    fun readText(path: String): String? {
+        return read(path)?.toString(Charsets.UTF_8)?.trim()
+    }
+
+    /**
+     * 批量读取文本（一次往返）
+     * @return 与paths顺序一致的结果，辅助进程不可用时返回null，其中读取失败的文件为null
+     */
+    fun readTexts(paths: List<String>): List<String?>? {
+        if (paths.isEmpty()) {
+            return emptyList()
+        }
+        val request = ByteArrayOutputStream()
+        DataOutputStream(request).run {
+            writeInt(paths.size)
+            for (path in paths) {
+                writeUTF(path)
+            }
+            flush()
+        }
+        val response = call(RootHelperServer.OP_READ_MULTI, "", request.toByteArray()) ?: return null
+        if (!response.isSucceed) {
+            return null
+        }
+        val reader = DataInputStream(ByteArrayInputStream(response.payload))
+        val count = reader.readInt()
+        return List(count) {
+            val status = reader.readByte()
+            val content = ByteArray(reader.readInt())
+            reader.readFully(content)
+            if (status == RootHelperServer.STATUS_OK) content.toString(Charsets.UTF_8).trim() else null
+        }
+    }
+
+    fun openInputStream(path: String): InputStream? {
+        return read(path)?.run { ByteArrayInputStream(this) }
+    }
+
+    /**
+     * 写入文件（覆盖）
+     * @return 是否写入成功，辅助进程不可用时也返回false
+     */
+    fun write(path: String, data: ByteArray): Boolean {
+        return call(RootHelperServer.OP_WRITE, path, data)?.isSucceed == true
+    }
+
+    /**
+     * @return 辅助进程不可用时返回null，文件不存在时返回type为TYPE_NONE的结果
+     */
+    fun stat(path: String): Stat? {
+        val response = call(RootHelperServer.OP_STAT, path) ?: return null
+        if (!response.isSucceed) {
+            return null
+        }
+        return readStat(DataInputStream(ByteArrayInputStream(response.payload)))
+    }
+
+    /**
+     * 列出目录内容
+     * @return 辅助进程不可用或目录无法读取时返回null
+     */
+    fun list(path: String): List<Entry>? {
+        val response = call(RootHelperServer.OP_LIST, path) ?: return null
+        if (!response.isSucceed) {
+            return null
+        }
+        val reader = DataInputStream(ByteArrayInputStream(response.payload))
+        val count = reader.readInt()
+        val entries = ArrayList<Entry>(count)
+        for (i in 0 until count) {
+            entries.add(Entry(reader.readUTF(), readStat(reader)))
+        }
+        return entries
+    }
+
+    /**
+     * 删除文件或目录（递归）
+     */
+    fun delete(path: String): Boolean {
+        return call(RootHelperServer.OP_DELETE, path)?.isSucceed == true
+    }
+
+    /**
+     * 结束进程及其所有子进程
+     * @return 辅助进程不可用时返回false
+     */
+    fun killTree(pid: Int): Boolean {
+        return call(RootHelperServer.OP_KILL_TREE, pid.toString())?.isSucceed == true
+    }
+
+    fun tryExit() {
+        synchronized(this) {
+            stop()
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.omarea.common.shell;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * ROOT辅助进程（通过 su + app_process 启动，与应用使用同一个APK）
+ * 使用标准输入、输出进行二进制通信，不经过Shell解释
+ *
+ * 请求：int id, byte op, UTF path, int length, byte[length] data
+ * 批量读取（OP_READ_MULTI）时路径列表放在data中，每个文件单独返回状态，其中一个失败不影响其它文件
+ * 响应：int id, byte status, int length, byte[length] payload（status为STATUS_ERROR时payload为错误信息）
+ *
+ * 注意：此类运行在独立的ROOT进程中，不能依赖Context等Android应用层对象
+ */
+public class RootHelperServer {
+    static final int MAGIC = 0x4B525248; // KRRH
+
+    static final byte OP_PING = 0;
+    static final byte OP_READ = 1;
+    static final byte OP_WRITE = 2;
+    static final byte OP_STAT = 3;
+    static final byte OP_LIST = 4;
+    static final byte OP_DELETE = 5;
+    // 批量读取：data为 int count, UTF[count] paths，payload为每个文件的 byte status, int length, byte[length] content
+    static final byte OP_READ_MULTI = 6;
+    // 结束进程及其所有子进程：path为PID
+    static final byte OP_KILL_TREE = 7;
+
+    private static final int SIGNAL_STOP = 19;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    static final byte TYPE_NONE = 0;
+    static final byte TYPE_FILE = 1;
+    static final byte TYPE_DIRECTORY = 2;
+
+    // 单次读取的最大长度，避免误读超大文件
+    static final int MAX_READ_SIZE = 16 * 1024 * 1024;
+
+    public static void main(String[] args) {
+        // 标准输出用于通信，其它任何输出都转到标准错误输出
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        try {
+            new RootHelperServer().serve(System.in, stdout);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+    private final byte[] buffer = new byte[8192];
+
+    private void serve(InputStream in, PrintStream out) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+        output.writeInt(MAGIC);
+        output.flush();
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadWriter = new DataOutputStream(payload);
+        while (true) {
+            int id;
+            try {
+                id = input.readInt();
+            } catch (EOFException ex) {
+                break;
+            }
+            byte op = input.readByte();
+            String path = input.readUTF();
+            int length = input.readInt();
+            byte[] data = new byte[length];
+            input.readFully(data);
+
+            payload.reset();
+            byte status = STATUS_OK;
+            try {
+                handle(op, path, data, payloadWriter);
+            } catch (Exception ex) {
+                status = STATUS_ERROR;
+                payload.reset();
+                payloadWriter.write(String.valueOf(ex.getMessage()).getBytes("UTF-8"));
+            }
+            payloadWriter.flush();
+
+            output.writeInt(id);
+            output.writeByte(status);
+            output.writeInt(payload.size());
+            payload.writeTo(output);
+            output.flush();
+        }
+    }
+
+    private void handle(byte op, String path, byte[] data, DataOutputStream payload) throws IOException {
+        File file = new File(path);
+        switch (op) {
+            case OP_PING: {
+                break;
+            }
+            case OP_READ: {
+                // 与 if [[ -e path ]]; then cat path; fi 一致，文件不存在时返回空内容
+                if (file.exists()) {
+                    read(file, payload);
+                }
+                break;
+            }
+            case OP_READ_MULTI: {
+                DataInputStream paths = new DataInputStream(new ByteArrayInputStream(data));
+                int count = paths.readInt();
+                payload.writeInt(count);
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                DataOutputStream contentWriter = new DataOutputStream(content);
+                for (int i = 0; i < count; i++) {
+                    File item = new File(paths.readUTF());
+                    content.reset();
+                    byte status = STATUS_OK;
+                    try {
+                        if (item.exists()) {
+                            read(item, contentWriter);
+                        }
+                    } catch (Exception ex) {
+                        status = STATUS_ERROR;
+                        content.reset();
+                    }
+                    contentWriter.flush();
+                    payload.writeByte(status);
+                    payload.writeInt(content.size());
+                    content.writeTo(payload);
+                }
+                break;
+            }
+            case OP_KILL_TREE: {
+                killTree(Integer.parseInt(path));
+                break;
+            }
+            case OP_WRITE: {
+                try (FileOutputStream stream = new FileOutputStream(file)) {
+                    stream.write(data);
+                }
+                break;
+            }
+            case OP_STAT: {
+                writeStat(file, payload);
+                break;
+            }
+            case OP_LIST: {
+                File[] files = file.listFiles();
+                if (files == null) {
+                    throw new IOException("Unable to list " + path);
+                }
+                payload.writeInt(files.length);
+                for (File item : files) {
+                    payload.writeUTF(item.getName());
+                    writeStat(item, payload);
+                }
+                break;
+            }
+            case OP_DELETE: {
+                delete(file);
+                break;
+            }
+            default: {
+                throw new IOException("Unknown operation " + op);
+            }
+        }
+    }
+
+    private void read(File file, DataOutputStream payload) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            int total = 0;
+            int length;
+            while ((length = stream.read(buffer)) > 0) {
+                total += length;
+                if (total > MAX_READ_SIZE) {
+                    throw new IOException("File too large");
+                }
+                payload.write(buffer, 0, length);
+            }
+        }
+    }
+
+    // 与 kill -STOP、逐个结束子进程、kill -9 一致：先暂停，避免结束过程中又创建新的子进程
+    private void killTree(int pid) {
+        android.os.Process.sendSignal(pid, SIGNAL_STOP);
+        for (int child : getChildren(pid)) {
+            killTree(child);
+        }
+        android.os.Process.sendSignal(pid, android.os.Process.SIGNAL_KILL);
+    }
+
+    private int[] getChildren(int pid) {
+        File[] processes = new File("/proc").listFiles();
+        if (processes == null) {
+            return new int[0];
+        }
+        int[] children = new int[processes.length];
+        int count = 0;
+        byte[] stat = new byte[512];
+        for (File process : processes) {
+            String name = process.getName();
+            if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+                continue;
+            }
+            try (FileInputStream stream = new FileInputStream(new File(process, "stat"))) {
+                int length = stream.read(stat);
+                if (length <= 0) {
+                    continue;
+                }
+                // pid (comm) state ppid ...，comm中可能包含空格和括号，从最后一个')'之后解析
+                String text = new String(stat, 0, length, "UTF-8");
+                String[] fields = text.substring(text.lastIndexOf(')') + 2).split(" ");
+                if (fields.length > 1 && Integer.parseInt(fields[1]) == pid) {
+                    children[count++] = Integer.parseInt(name);
+                }
+            } catch (Exception ignored) {
+                // 进程已经结束
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(children, 0, result, 0, count);
+        return result;
+    }
+
+    private void writeStat(File file, DataOutputStream payload) throws IOException {
+        if (file.isDirectory()) {
+            payload.writeByte(TYPE_DIRECTORY);
+        } else if (file.exists()) {
+            payload.writeByte(TYPE_FILE);
+        } else {
+            payload.writeByte(TYPE_NONE);
+        }
+        payload.writeLong(file.length());
+        payload.writeLong(file.lastModified());
+    }
+
+    private void delete(File file) throws IOException {
+        File[] children = file.isDirectory() ? file.listFiles() : null;
+        if (children != null) {
+            File parent = file.getCanonicalFile();
+            for (File child : children) {
+                // 与 rm -rf 一致，不跟随符号链接进入其它目录，只删除链接本身
+                if (child.getCanonicalPath().equals(new File(parent, child.getName()).getPath())) {
+                    delete(child);
+                } else if (!child.delete()) {
+                    throw new IOException("Unable to delete " + child.getPath());
+                }
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Unable to delete " + file.getPath());
+        }
+    }
+}
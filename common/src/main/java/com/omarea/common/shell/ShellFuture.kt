@@ -0,0 +1,126 @@
+package com.omarea.common.shell
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * 已提交到KeepShell、尚未返回结果的命令
+ * 由KeepShell的读取线程根据帧标识（nonce）填充结果
+ */
+class ShellFuture internal constructor(val nonce: String) : Future<ShellResult> {
+    private val latch = CountDownLatch(1)
+
+    // 标准错误输出由单独的线程读取，帧结束标记到达后才算完整
+    private val errors = StringBuilder()
+    private val errorsLatch = CountDownLatch(1)
+
+    // 写入会话的时间
+    internal var submitTime = 0L
+
+    // 会话开始执行该命令的时间（读取到帧开始标记）
+    @Volatile
+    internal var startTime = 0L
+
+    @Volatile
+    private var result: ShellResult? = null
+
+    @Volatile
+    private var cancelled = false
+
+    // 命令所在子进程的PID（读取到PID标记后才有值）
+    @Volatile
+    internal var pid = 0
+
+    // 逐行接收输出（用于流式读取），由读取线程调用
+    @Volatile
+    internal var onLine: ((String) -> Unit)? = null
+
+    private var completeHandlers: ArrayList<(ShellResult) -> Unit>? = null
+
+    internal fun appendError(text: String) {
+        synchronized(errors) {
+            errors.append(text)
+        }
+    }
+
+    internal fun finishErrors() {
+        errorsLatch.countDown()
+    }
+
+    /**
+     * 标准输出帧结束，等待标准错误输出帧结束（最多waitErrors毫秒）后生成结果
+     */
+    internal fun finish(output: String, exitCode: Int, waitErrors: Long): Boolean {
+        try {
+            errorsLatch.await(waitErrors, TimeUnit.MILLISECONDS)
+        } catch (_: InterruptedException) {
+        }
+        val now = System.currentTimeMillis()
+        val start = if (startTime > 0) startTime else now
+        val stderr = synchronized(errors) { errors.toString().trim() }
+        return complete(ShellResult(output.trim(), exitCode, stderr, now - start, start - submitTime))
+    }
+
+    internal fun complete(value: ShellResult): Boolean {
+        val handlers: List<(ShellResult) -> Unit>?
+        synchronized(this) {
+            if (result != null) {
+                return false
+            }
+            result = value
+            handlers = completeHandlers
+            completeHandlers = null
+        }
+        onLine = null
+        latch.countDown()
+        handlers?.forEach { it(value) }
+        return true
+    }
+
+    /**
+     * 命令完成（包括失败、取消）时回调，如果已经完成则立即回调
+     */
+    fun invokeOnComplete(handler: (ShellResult) -> Unit) {
+        val value = synchronized(this) {
+            if (result == null) {
+                val handlers = completeHandlers ?: ArrayList<(ShellResult) -> Unit>().also { completeHandlers = it }
+                handlers.add(handler)
+                return
+            }
+            result!!
+        }
+        handler(value)
+    }
+
+    override fun cancel(mayInterruptIfRunning: Boolean): Boolean {
+        synchronized(this) {
+            if (result != null) {
+                return false
+            }
+            cancelled = true
+        }
+        return complete(ShellResult.cancelled())
+    }
+
+    override fun isCancelled(): Boolean {
+        return cancelled
+    }
+
+    override fun isDone(): Boolean {
+        return result != null
+    }
+
+    override fun get(): ShellResult {
+        latch.await()
+        return result!!
+    }
+
+    override fun get(timeout: Long, unit: TimeUnit): ShellResult {
+        if (!latch.await(timeout, unit)) {
+            throw TimeoutException("Shell command [$nonce] timeout")
+        }
+        return result!!
+    }
+}
@@ -0,0 +1,242 @@
+package com.omarea.common.shell
+
+import android.util.Log
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Shell执行耗时统计
+ * 按会话（连接池）和按脚本（页面配置 + 节点）分别记录执行次数、失败次数、耗时分布、排队等待和会话占用时间
+ * 另外记录执行环境启动时各步骤的耗时
+ */
+object ShellMetrics {
+    /**
+     * 耗时分布（毫秒），按对数分桶：每个2的幂区间再均分为8个子桶，相对误差不超过12.5%
+     */
+    class Histogram {
+        companion object {
+            private const val SUB_BUCKET_BITS = 3
+            private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+            private const val MAX_EXPONENT = 40
+            private const val BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS
+
+            private fun indexOf(value: Long): Int {
+                if (value < SUB_BUCKETS) {
+                    return value.coerceAtLeast(0).toInt()
+                }
+                val exponent = (63 - java.lang.Long.numberOfLeadingZeros(value)).coerceAtMost(MAX_EXPONENT)
+                val shift = exponent - SUB_BUCKET_BITS
+                val sub = ((value shr shift) and (SUB_BUCKETS - 1).toLong()).toInt()
+                return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub
+            }
+
+            // 桶内的最大值
+            private fun upperBoundOf(index: Int): Long {
+                if (index < SUB_BUCKETS) {
+                    return index.toLong()
+                }
+                val shift = index / SUB_BUCKETS - 1
+                val sub = index % SUB_BUCKETS
+                return ((SUB_BUCKETS + sub + 1).toLong() shl shift) - 1
+            }
+        }
+
+        private val counts = AtomicLongArray(BUCKETS)
+        private val count = AtomicLong(0)
+        private val total = AtomicLong(0)
+        private val max = AtomicLong(0)
+
+        fun record(value: Long) {
+            counts.incrementAndGet(indexOf(value))
+            count.incrementAndGet()
+            total.addAndGet(value)
+            while (true) {
+                val current = max.get()
+                if (value <= current || max.compareAndSet(current, value)) {
+                    break
+                }
+            }
+        }
+
+        val totalCount: Long
+            get() = count.get()
+
+        val totalTime: Long
+            get() = total.get()
+
+        val maxValue: Long
+            get() = max.get()
+
+        val average: Long
+            get() {
+                val c = count.get()
+                return if (c > 0) total.get() / c else 0L
+            }
+
+        /**
+         * 百分位数
+         * @param percent 0~100
+         */
+        fun percentile(percent: Double): Long {
+            val c = count.get()
+            if (c == 0L) {
+                return 0L
+            }
+            val target = Math.ceil(c * percent / 100.0).toLong().coerceIn(1L, c)
+            var seen = 0L
+            for (i in 0 until BUCKETS) {
+                seen += counts.get(i)
+                if (seen >= target) {
+                    return upperBoundOf(i).coerceAtMost(max.get())
+                }
+            }
+            return max.get()
+        }
+    }
+
+    open class Stats(val key: String) {
+        // 执行耗时
+        val latency = Histogram()
+
+        // 排队等待耗时
+        val queueWait = Histogram()
+
+        // 会话占用时间（从借出到归还）
+        val lockHold = Histogram()
+
+        val failures = AtomicLong(0)
+
+        internal fun record(result: ShellResult) {
+            latency.record(result.wallTime)
+            queueWait.record(result.queueWait)
+            if (result.isFailed) {
+                failures.incrementAndGet()
+            }
+        }
+    }
+
+    class ScriptStats(
+        // 页面配置文件路径
+        val page: String,
+        // 节点的key（或标题）
+        val node: String,
+        // 脚本内容摘要
+        val script: String
+    ) : Stats("$page|$node|$script")
+
+    // 脚本摘要的最大长度
+    private const val SCRIPT_SUMMARY_LENGTH = 80
+    private val WHITESPACE = Regex("\\s+")
+
+    private val shells = ConcurrentHashMap<String, Stats>()
+    private val scripts = ConcurrentHashMap<String, ScriptStats>()
+
+    // 执行环境启动各步骤的耗时（毫秒），按完成顺序排列
+    private val startupSteps = LinkedHashMap<String, Long>()
+
+    @Volatile
+    var enabled = true
+
+    private fun shellStats(shellKey: String): Stats {
+        return shells[shellKey] ?: shells.putIfAbsent(shellKey, Stats(shellKey)) ?: shells[shellKey]!!
+    }
+
+    private fun scriptStats(page: String, node: String, script: String): ScriptStats {
+        val summary = summary(script)
+        val key = "$page|$node|$summary"
+        return scripts[key] ?: scripts.putIfAbsent(key, ScriptStats(page, node, summary)) ?: scripts[key]!!
+    }
+
+    private fun summary(script: String): String {
+        val text = script.trim().replace(WHITESPACE, " ")
+        return if (text.length > SCRIPT_SUMMARY_LENGTH) text.substring(0, SCRIPT_SUMMARY_LENGTH) + "…" else text
+    }
+
+    /**
+     * 记录会话中执行的一个命令
+     * @param shellKey 会话（连接池）名称
+     */
+    fun recordShell(shellKey: String, result: ShellResult) {
+        if (enabled) {
+            shellStats(shellKey).record(result)
+        }
+    }
+
+    /**
+     * 记录会话被占用的时间
+     */
+    fun recordLockHold(shellKey: String, millis: Long) {
+        if (enabled) {
+            shellStats(shellKey).lockHold.record(millis)
+        }
+    }
+
+    /**
+     * 记录页面中的一个脚本的执行结果
+     */
+    fun recordScript(page: String, node: String, script: String, result: ShellResult) {
+        if (enabled) {
+            scriptStats(page, node, script).record(result)
+        }
+    }
+
+    /**
+     * 记录页面中的一个脚本的执行耗时（用于不经过常驻会话的脚本，例如操作）
+     */
+    fun recordScript(page: String, node: String, script: String, millis: Long, failed: Boolean) {
+        if (enabled) {
+            scriptStats(page, node, script).run {
+                latency.record(millis)
+                if (failed) {
+                    failures.incrementAndGet()
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录执行环境启动的一个步骤的耗时（重新启动时覆盖上次的记录）
+     */
+    fun recordStartup(step: String, millis: Long) {
+        synchronized(startupSteps) {
+            startupSteps.remove(step)
+            startupSteps[step] = millis
+        }
+        Log.d("ShellMetrics", "startup $step: ${millis}ms")
+    }
+
+    fun getStartupSteps(): List<Pair<String, Long>> {
+        synchronized(startupSteps) {
+            return startupSteps.toList()
+        }
+    }
+
+    fun getShellStats(): List<Stats> {
+        return shells.values.sortedBy { it.key }
+    }
+
+    /**
+     * 按总耗时从高到低排列的脚本
+     */
+    fun getSlowestScripts(limit: Int): List<ScriptStats> {
+        return scripts.values.sortedByDescending { it.latency.totalTime }.take(limit)
+    }
+
+    /**
+     * 按页面汇总的脚本总耗时（毫秒），从高到低排列
+     */
+    fun getSlowestPages(limit: Int): List<Pair<String, Long>> {
+        val pages = HashMap<String, Long>()
+        for (stats in scripts.values) {
+            pages[stats.page] = (pages[stats.page] ?: 0L) + stats.latency.totalTime
+        }
+        return pages.toList().sortedByDescending { it.second }.take(limit)
+    }
+
+    // 启动耗时只记录一次，不随统计一起清空
+    fun reset() {
+        shells.clear()
+        scripts.clear()
+    }
+}
@@ -0,0 +1,280 @@
+package com.omarea.common.shell
+
+import java.io.InputStream
+
+/**
+ * 按字节解析KeepShell的输出帧
+ * 直接在字节流中匹配帧开始、结束标记，每个帧的内容只在结束时做一次UTF-8解码，
+ * 读取缓冲区和帧内容缓冲区都会被复用，避免逐行读取时大量创建临时字符串
+ *
+ * 帧格式：
+ *   |SH>>|nonce|\n  内容  |<<SH|nonce|status|\n  （status可以为空：|<<SH|nonce|\n）
+ * 内容中任意位置出现的 |PID>>|nonce|pid|\n 为命令所在子进程的PID，会从内容中移除
+ */
+internal class ShellOutputFramer(
+    private val input: InputStream,
+    private val handler: Handler,
+    // 是否报告帧之外的输出（逐行）
+    private val reportUnframed: Boolean = false
+) {
+    interface Handler {
+        /**
+         * 帧开始
+         * @return 是否需要逐行报告该帧的内容
+         */
+        fun onFrameStart(nonce: String): Boolean
+
+        fun onFrameLine(nonce: String, line: String) {}
+
+        fun onFramePid(nonce: String, pid: Int) {}
+
+        fun onFrameEnd(nonce: String, content: String, status: String)
+
+        fun onUnframed(line: String) {}
+    }
+
+    companion object {
+        private val START_TAG = "|SH>>|".toByteArray(Charsets.UTF_8)
+        private val END_TAG = "|<<SH|".toByteArray(Charsets.UTF_8)
+        private val PID_TAG = "|PID>>|".toByteArray(Charsets.UTF_8)
+        private const val SEPARATOR: Byte = 0x7C // '|'
+        private const val NEW_LINE: Byte = 0x0A // '\n'
+
+        private const val READ_BUFFER_SIZE = 8192
+        private const val INITIAL_FRAME_SIZE = 4096
+
+        // 帧内容缓冲区超过此大小时，在帧结束后释放，避免一次大输出长期占用内存
+        private const val MAX_RETAINED_FRAME_SIZE = 256 * 1024
+
+        // 帧标识、状态码的最大长度，超出说明不是有效的标记
+        private const val MAX_TOKEN_SIZE = 64
+
+        private const val STATE_OUTSIDE = 0
+        private const val STATE_START_NONCE = 1
+        private const val STATE_START_SKIP = 2
+        private const val STATE_BODY = 3
+        private const val STATE_END_NONCE = 4
+        private const val STATE_END_STATUS = 5
+        private const val STATE_PID_NONCE = 6
+        private const val STATE_PID_VALUE = 7
+        private const val STATE_PID_SKIP = 8
+    }
+
+    private val readBuffer = ByteArray(READ_BUFFER_SIZE)
+    private var frame = ByteArray(INITIAL_FRAME_SIZE)
+    private var frameLength = 0
+    private var lineStart = 0
+
+    private val token = ByteArray(MAX_TOKEN_SIZE)
+    private var tokenLength = 0
+
+    private var state = STATE_OUTSIDE
+    private var startMatched = 0
+    private var endMatched = 0
+    private var pidMatched = 0
+    private var pidNonce: String? = null
+    private var pid = 0
+    private var nonce: String? = null
+    private var endNonce: String? = null
+    private var reportLines = false
+
+    /**
+     * 持续读取直到输入流结束
+     */
+    fun run() {
+        while (true) {
+            val length = input.read(readBuffer)
+            if (length < 0) {
+                break
+            }
+            for (i in 0 until length) {
+                accept(readBuffer[i])
+            }
+        }
+    }
+
+    private fun append(byte: Byte) {
+        if (frameLength == frame.size) {
+            frame = frame.copyOf(frame.size * 2)
+        }
+        frame[frameLength++] = byte
+    }
+
+    private fun decode(from: Int, to: Int): String {
+        return if (to > from) String(frame, from, to - from, Charsets.UTF_8) else ""
+    }
+
+    private fun resetFrame() {
+        if (frame.size > MAX_RETAINED_FRAME_SIZE) {
+            frame = ByteArray(INITIAL_FRAME_SIZE)
+        }
+        frameLength = 0
+        lineStart = 0
+    }
+
+    // 逐个匹配标记字节，返回已匹配的长度（等于tag.size时完全匹配）
+    // 标记以'|'开头且中间不含'|'，匹配失败时当前字节可能是新一轮匹配的开头
+    private fun matchTag(tag: ByteArray, matched: Int, byte: Byte): Int {
+        return if (byte == tag[matched]) {
+            matched + 1
+        } else {
+            if (byte == tag[0]) 1 else 0
+        }
+    }
+
+    private fun readToken(byte: Byte, terminator: Byte): Boolean {
+        if (byte == terminator) {
+            return true
+        }
+        if (tokenLength < MAX_TOKEN_SIZE) {
+            token[tokenLength++] = byte
+        }
+        return false
+    }
+
+    private fun takeToken(): String {
+        val value = String(token, 0, tokenLength, Charsets.UTF_8)
+        tokenLength = 0
+        return value
+    }
+
+    private fun accept(byte: Byte) {
+        when (state) {
+            STATE_OUTSIDE -> {
+                if (reportUnframed) {
+                    append(byte)
+                }
+                startMatched = matchTag(START_TAG, startMatched, byte)
+                if (startMatched == START_TAG.size) {
+                    startMatched = 0
+                    if (reportUnframed) {
+                        frameLength -= START_TAG.size
+                        if (frameLength > 0) {
+                            handler.onUnframed(decode(0, frameLength))
+                        }
+                    }
+                    resetFrame()
+                    state = STATE_START_NONCE
+                } else if (reportUnframed && byte == NEW_LINE) {
+                    handler.onUnframed(decode(0, frameLength - 1))
+                    resetFrame()
+                }
+            }
+            STATE_START_NONCE -> {
+                if (readToken(byte, SEPARATOR)) {
+                    nonce = takeToken()
+                    state = STATE_START_SKIP
+                } else if (byte == NEW_LINE) {
+                    tokenLength = 0
+                    state = STATE_OUTSIDE
+                }
+            }
+            STATE_START_SKIP -> {
+                if (byte == NEW_LINE) {
+                    reportLines = handler.onFrameStart(nonce!!)
+                    state = STATE_BODY
+                }
+            }
+            STATE_BODY -> {
+                append(byte)
+                endMatched = matchTag(END_TAG, endMatched, byte)
+                pidMatched = matchTag(PID_TAG, pidMatched, byte)
+                if (endMatched == END_TAG.size) {
+                    frameLength -= END_TAG.size
+                    endMatched = 0
+                    pidMatched = 0
+                    state = STATE_END_NONCE
+                } else if (pidMatched == PID_TAG.size) {
+                    frameLength -= PID_TAG.size
+                    endMatched = 0
+                    pidMatched = 0
+                    state = STATE_PID_NONCE
+                } else if (byte == NEW_LINE && reportLines) {
+                    handler.onFrameLine(nonce!!, decode(lineStart, frameLength - 1))
+                    lineStart = frameLength
+                }
+            }
+            STATE_END_NONCE -> {
+                if (byte == NEW_LINE) {
+                    // 不完整的结束标记（换行前没有分隔符），还原为普通内容
+                    restoreEndTag(token.copyOf(tokenLength), false)
+                    tokenLength = 0
+                    append(byte)
+                    if (reportLines) {
+                        handler.onFrameLine(nonce!!, decode(lineStart, frameLength - 1))
+                        lineStart = frameLength
+                    }
+                } else if (readToken(byte, SEPARATOR)) {
+                    val value = takeToken()
+                    if (value == nonce) {
+                        endNonce = value
+                        state = STATE_END_STATUS
+                    } else {
+                        // 内容中恰好出现了结束标记，但不属于当前帧，还原为普通内容
+                        restoreEndTag(value.toByteArray(Charsets.UTF_8), true)
+                    }
+                }
+            }
+            STATE_PID_NONCE -> {
+                if (readToken(byte, SEPARATOR)) {
+                    pidNonce = takeToken()
+                    pid = 0
+                    state = STATE_PID_VALUE
+                } else if (byte == NEW_LINE) {
+                    tokenLength = 0
+                    state = STATE_BODY
+                }
+            }
+            STATE_PID_VALUE -> {
+                if (byte == SEPARATOR) {
+                    state = STATE_PID_SKIP
+                } else if (byte in 0x30..0x39) {
+                    pid = pid * 10 + (byte - 0x30)
+                } else if (byte == NEW_LINE) {
+                    state = STATE_BODY
+                }
+            }
+            STATE_PID_SKIP -> {
+                if (byte == NEW_LINE) {
+                    handler.onFramePid(pidNonce!!, pid)
+                    pidNonce = null
+                    state = STATE_BODY
+                }
+            }
+            STATE_END_STATUS -> {
+                if (readToken(byte, NEW_LINE)) {
+                    var length = tokenLength
+                    if (length > 0 && token[length - 1] == SEPARATOR) {
+                        length--
+                    }
+                    tokenLength = length
+                    val status = takeToken()
+                    if (reportLines && frameLength > lineStart) {
+                        handler.onFrameLine(nonce!!, decode(lineStart, frameLength))
+                    }
+                    handler.onFrameEnd(endNonce!!, decode(0, frameLength), status)
+                    resetFrame()
+                    nonce = null
+                    endNonce = null
+                    reportLines = false
+                    state = STATE_OUTSIDE
+                }
+            }
+        }
+    }
+
+    private fun restoreEndTag(value: ByteArray, withSeparator: Boolean) {
+        for (b in END_TAG) {
+            append(b)
+        }
+        for (b in value) {
+            append(b)
+        }
+        if (withSeparator) {
+            append(SEPARATOR)
+        }
+        endMatched = if (withSeparator) 1 else 0
+        pidMatched = endMatched
+        state = STATE_BODY
+    }
+}
@@ -0,0 +1,57 @@
+package com.omarea.common.shell
+
+/**
+ * 单条命令的执行结果
+ */
+class ShellResult @JvmOverloads constructor(
+    // 标准输出（已去除首尾空白）
+    val stdout: String,
+    // 退出状态码，未能获得执行结果时为 EXIT_CODE_UNKNOWN
+    val exitCode: Int,
+    // 标准错误输出（已去除首尾空白）
+    val stderr: String = "",
+    // 命令开始执行到返回结果的耗时（毫秒）
+    val wallTime: Long = 0L,
+    queueWait: Long = 0L
+) {
+    companion object {
+        const val EXIT_CODE_UNKNOWN = -1
+
+        // 命令因超时或被取消而终止
+        const val EXIT_CODE_CANCELLED = -2
+
+        fun failed(): ShellResult {
+            return ShellResult("", EXIT_CODE_UNKNOWN)
+        }
+
+        fun cancelled(): ShellResult {
+            return ShellResult("", EXIT_CODE_CANCELLED)
+        }
+    }
+
+    // 命令开始执行前的排队耗时（毫秒），包括等待连接池借出、等待会话锁、等待会话中前面的命令执行完
+    var queueWait: Long = queueWait
+        internal set
+
+    // 命令未能执行完成（会话异常、超时、被取消等）
+    val isFailed: Boolean
+        get() = exitCode < 0
+
+    // 命令被取消（会话本身仍然可用）
+    val isCancelled: Boolean
+        get() = exitCode == EXIT_CODE_CANCELLED
+
+    val isSucceed: Boolean
+        get() = exitCode == 0
+
+    /**
+     * 替换输出内容（例如对输出进行翻译后），保留其它信息
+     */
+    fun withStdout(stdout: String): ShellResult {
+        return ShellResult(stdout, exitCode, stderr, wallTime, queueWait)
+    }
+
+    override fun toString(): String {
+        return stdout
+    }
+}
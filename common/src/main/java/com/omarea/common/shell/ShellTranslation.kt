@@ -62,8 +62,8 @@ class ShellTranslation(val context: Context) {
     }
 
     fun getTranslatedResult(shellCommand: String, executor: KeepShell?): String {
-        val shell = executor?: KeepShellPublic.getDefaultInstance()
-        val rows = shell.doCmdSync(shellCommand).split("\n")
+        val result = if (executor != null) executor.doCmdSync(shellCommand) else KeepShellPublic.doCmdSync(shellCommand)
+        val rows = result.split("\n")
         return if (rows.isNotEmpty()) {
             resolveRows(rows)
         } else {
@@ -0,0 +1,168 @@
+package com.omarea.common.shell
+
+import android.system.ErrnoException
+import android.system.OsConstants
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.Collections
+
+/**
+ * 直接在进程内读取sysfs、procfs节点
+ * 每个节点保持一个打开的FileChannel，每次从偏移0重新读取（pread），不必每次都经过ROOT会话（fork + exec + 管道往返）
+ * 因权限不足（EACCES、EPERM）无法直接读取的节点会被记录下来，之后由调用方直接使用ROOT会话读取
+ * 其它错误（节点暂时不存在、设备未就绪等）只关闭已打开的节点，下次读取时重新打开
+ */
+object SysfsReader {
+    // 最多同时保持打开的节点数
+    private const val MAX_OPEN_FILES = 64
+
+    private const val INITIAL_BUFFER_SIZE = 4096
+
+    // 缓冲区超过此大小时，读取完成后释放
+    private const val MAX_RETAINED_BUFFER_SIZE = 64 * 1024
+
+    private class Node(val channel: FileChannel) {
+        var buffer: ByteBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE)
+        var closed = false
+
+        // 读取失败、读取时已被关闭都返回null
+        @Synchronized
+        fun read(): String? {
+            if (closed) {
+                return null
+            }
+            var buffer = this.buffer
+            buffer.clear()
+            var position = 0L
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    val larger = ByteBuffer.allocate(buffer.capacity() * 2)
+                    buffer.flip()
+                    larger.put(buffer)
+                    buffer = larger
+                }
+                val remaining = buffer.remaining()
+                val length = channel.read(buffer, position)
+                // 内核伪文件一次读取会尽量填满缓冲区，读取到的比请求的少即说明已经读完，通常只需一次系统调用
+                if (length <= 0 || length < remaining) {
+                    break
+                }
+                position += length
+            }
+            val text = decode(buffer)
+            this.buffer = if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) ByteBuffer.allocate(INITIAL_BUFFER_SIZE) else buffer
+            return text
+        }
+
+        private fun decode(buffer: ByteBuffer): String {
+            return String(buffer.array(), 0, buffer.position(), Charsets.UTF_8).trim()
+        }
+
+        @Synchronized
+        fun close() {
+            closed = true
+            try {
+                channel.close()
+            } catch (_: Exception) {
+            }
+        }
+    }
+
+    // 按访问顺序排列，超出数量时关闭最久未使用的节点
+    private val nodes = object : LinkedHashMap<String, Node>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Node>): Boolean {
+            if (size > MAX_OPEN_FILES) {
+                eldest.value.close()
+                return true
+            }
+            return false
+        }
+    }
+
+    // 需要ROOT权限才能读取（或无法直接读取）的节点
+    private val rootPaths = Collections.synchronizedSet(HashSet<String>())
+
+    /**
+     * 是否尝试直接读取该路径（只处理sysfs、procfs下的节点）
+     */
+    fun isSupported(path: String): Boolean {
+        return (path.startsWith("/sys/") || path.startsWith("/proc/")) && !rootPaths.contains(path)
+    }
+
+    fun requiresRoot(path: String): Boolean {
+        return rootPaths.contains(path)
+    }
+
+    /**
+     * 直接读取节点内容（已去除首尾空白）
+     * @return 无法直接读取时返回null，调用方应改用ROOT会话读取
+     */
+    fun read(path: String): String? {
+        if (!isSupported(path)) {
+            return null
+        }
+        val node = synchronized(nodes) { nodes[path] } ?: open(path) ?: return null
+        try {
+            // 节点刚好被淘汰关闭时，重新打开一次
+            return node.read() ?: open(path)?.read()
+        } catch (ex: Exception) {
+            // 部分节点可以打开但读取时报错（例如权限由驱动自行检查）
+            onError(path, ex)
+            return null
+        }
+    }
+
+    private fun open(path: String): Node? {
+        val node = try {
+            Node(RandomAccessFile(path, "r").channel)
+        } catch (ex: Exception) {
+            onError(path, ex)
+            return null
+        }
+        synchronized(nodes) {
+            val exists = nodes[path]
+            if (exists != null) {
+                node.close()
+                return exists
+            }
+            nodes[path] = node
+        }
+        return node
+    }
+
+    private fun onError(path: String, ex: Exception) {
+        // 只有权限不足时才交给ROOT会话处理，其它错误下次重新打开
+        if (isPermissionDenied(ex)) {
+            rootPaths.add(path)
+        }
+        synchronized(nodes) { nodes.remove(path) }?.close()
+    }
+
+    private fun isPermissionDenied(ex: Throwable): Boolean {
+        var cause: Throwable? = ex
+        while (cause != null) {
+            if (cause is ErrnoException) {
+                return cause.errno == OsConstants.EACCES || cause.errno == OsConstants.EPERM
+            }
+            cause = cause.cause
+        }
+        // 打开失败时的FileNotFoundException不包含errno，只能根据错误信息判断
+        val message = ex.message ?: return false
+        return message.contains("EACCES") || message.contains("EPERM") ||
+                message.contains("Permission denied") || message.contains("Operation not permitted")
+    }
+
+    /**
+     * 关闭所有打开的节点，并清除需要ROOT权限的节点记录（例如节点权限被修改后）
+     */
+    fun reset() {
+        synchronized(nodes) {
+            for (node in nodes.values) {
+                node.close()
+            }
+            nodes.clear()
+        }
+        rootPaths.clear()
+    }
+}
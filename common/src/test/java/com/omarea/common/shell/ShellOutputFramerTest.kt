@@ -0,0 +1,143 @@
+package com.omarea.common.shell
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+
+class ShellOutputFramerTest {
+    private class Recorder(private val reportLines: Boolean = false) : ShellOutputFramer.Handler {
+        val events = ArrayList<String>()
+
+        override fun onFrameStart(nonce: String): Boolean {
+            events.add("start:$nonce")
+            return reportLines
+        }
+
+        override fun onFrameLine(nonce: String, line: String) {
+            events.add("line:$nonce:$line")
+        }
+
+        override fun onFramePid(nonce: String, pid: Int) {
+            events.add("pid:$nonce:$pid")
+        }
+
+        override fun onFrameEnd(nonce: String, content: String, status: String) {
+            events.add("end:$nonce:$content:$status")
+        }
+
+        override fun onUnframed(line: String) {
+            events.add("unframed:$line")
+        }
+    }
+
+    // 每次最多返回chunk个字节，模拟标记被拆分到多次读取中
+    private class ChunkedInputStream(bytes: ByteArray, private val chunk: Int) : InputStream() {
+        private val input = ByteArrayInputStream(bytes)
+
+        override fun read(): Int {
+            return input.read()
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            return input.read(b, off, minOf(len, chunk))
+        }
+    }
+
+    private fun parse(text: String, handler: Recorder, chunk: Int = Int.MAX_VALUE, reportUnframed: Boolean = false): List<String> {
+        ShellOutputFramer(ChunkedInputStream(text.toByteArray(Charsets.UTF_8), chunk), handler, reportUnframed).run()
+        return handler.events
+    }
+
+    @Test
+    fun frame_contentAndStatus() {
+        val events = parse("|SH>>|n1|\nhello\nworld\n|<<SH|n1|0|\n", Recorder())
+        assertEquals(listOf("start:n1", "end:n1:hello\nworld\n:0"), events)
+    }
+
+    @Test
+    fun frame_reportsLines() {
+        val events = parse("|SH>>|n1|\nhello\nworld\n|<<SH|n1|1|\n", Recorder(true))
+        assertEquals(listOf("start:n1", "line:n1:hello", "line:n1:world", "end:n1:hello\nworld\n:1"), events)
+    }
+
+    @Test
+    fun tagsSplitAcrossReads() {
+        val text = "|SH>>|n1|\nab|PID>>|n1|42|\ncd\n|<<SH|n1|3|\n|SH>>|n2|\n|<<SH|n2|0|\n"
+        val expected = listOf("start:n1", "pid:n1:42", "line:n1:abcd", "end:n1:abcd\n:3", "start:n2", "end:n2::0")
+        for (chunk in 1..7) {
+            assertEquals("chunk=$chunk", expected, parse(text, Recorder(true), chunk))
+        }
+    }
+
+    @Test
+    fun emptyOutput() {
+        val events = parse("|SH>>|n1|\n|<<SH|n1|0|\n|SH>>|n2|\n|<<SH|n2|\n", Recorder(true))
+        assertEquals(listOf("start:n1", "end:n1::0", "start:n2", "end:n2::"), events)
+    }
+
+    @Test
+    fun endTagWithOtherNonce_keptAsContent() {
+        val events = parse("|SH>>|n1|\nbefore\n|<<SH|old|1|\nafter\n|<<SH|n1|0|\n", Recorder())
+        assertEquals(listOf("start:n1", "end:n1:before\n|<<SH|old|1|\nafter\n:0"), events)
+    }
+
+    @Test
+    fun incompleteEndTag_keptAsContent() {
+        val events = parse("|SH>>|n1|\n|<<SH|abc\n|<<S\n||<<SH|n1|0|\n", Recorder())
+        assertEquals(listOf("start:n1", "end:n1:|<<SH|abc\n|<<S\n|:0"), events)
+    }
+
+    @Test
+    fun incompleteEndTag_reportedAsLines() {
+        val events = parse("|SH>>|n1|\n|<<SH|abc\n|<<S\n||<<SH|n1|0|\n", Recorder(true))
+        assertEquals(listOf("start:n1", "line:n1:|<<SH|abc", "line:n1:|<<S", "line:n1:|", "end:n1:|<<SH|abc\n|<<S\n|:0"), events)
+    }
+
+    @Test
+    fun staleFrame_doesNotLeakIntoNextFrame() {
+        // 上一个（已被取消的）命令的帧在新命令之前结束，两个帧各自独立
+        val events = parse("|SH>>|old|\nstale\n|<<SH|old|137|\n|SH>>|n1|\nfresh\n|<<SH|n1|0|\n", Recorder())
+        assertEquals(listOf("start:old", "end:old:stale\n:137", "start:n1", "end:n1:fresh\n:0"), events)
+    }
+
+    @Test
+    fun pidTagInsideBody_removedFromContent() {
+        val events = parse("|SH>>|n1|\nline1\n|PID>>|n1|1234|\nline2\n|<<SH|n1|0|\n", Recorder(true))
+        assertEquals(listOf("start:n1", "line:n1:line1", "pid:n1:1234", "line:n1:line2", "end:n1:line1\nline2\n:0"), events)
+    }
+
+    @Test
+    fun pidTagInsideLine_removedFromContent() {
+        val events = parse("|SH>>|n1|\nlin|PID>>|n1|7|\ne1\n|<<SH|n1|0|\n", Recorder(true))
+        assertEquals(listOf("start:n1", "pid:n1:7", "line:n1:line1", "end:n1:line1\n:0"), events)
+    }
+
+    @Test
+    fun stderrFrames_separateFromUnframedOutput() {
+        // 标准错误输出：帧之外的内容（如su的提示）逐行报告，帧的结束标记没有状态码
+        val text = "su: warning\n|SH>>|n1|\nerr1\nerr2\n|<<SH|n1|\nnoise|SH>>|n2|\n|<<SH|n2|\n"
+        val events = parse(text, Recorder(), reportUnframed = true)
+        assertEquals(listOf(
+                "unframed:su: warning",
+                "start:n1",
+                "end:n1:err1\nerr2\n:",
+                "unframed:noise",
+                "start:n2",
+                "end:n2::"
+        ), events)
+    }
+
+    @Test
+    fun largeFrame_contentPreserved() {
+        val body = "0123456789abcdef\n".repeat(2000)
+        val events = parse("|SH>>|n1|\n$body|<<SH|n1|0|\n", Recorder(), 1000)
+        assertEquals(listOf("start:n1", "end:n1:$body:0"), events)
+    }
+
+    @Test
+    fun multiByteCharacters_decodedPerFrame() {
+        val events = parse("|SH>>|n1|\n中文输出\n|<<SH|n1|0|\n", Recorder(true), 1)
+        assertEquals(listOf("start:n1", "line:n1:中文输出", "end:n1:中文输出\n:0"), events)
+    }
+}
@@ -11,6 +11,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 
 import com.omarea.common.shell.KeepShellPublic;
+import com.omarea.common.shell.ProcessIoDispatcher;
 import com.omarea.common.shell.ShellExecutor;
 import com.omarea.common.ui.DialogHelper;
 import com.omarea.krscript.downloader.Downloader;
@@ -24,13 +25,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.UUID;
@@ -172,79 +168,37 @@ public class WebViewInjector {
         }
 
         private void setHandler(Process process, final String callbackFunction, final Runnable onExit) {
-            final InputStream inputStream = process.getInputStream();
-            final InputStream errorStream = process.getErrorStream();
-            final Thread reader = new Thread(() -> {
-                String line;
-                try {
-                    BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-                    while ((line = bufferedReader.readLine()) != null) {
-                        try {
-                            final JSONObject message = new JSONObject();
-                            message.put("type", ShellHandlerBase.EVENT_REDE);
-                            message.put("message", line + "\n");
-                            webView.post(() -> webView.evaluateJavascript(callbackFunction + "(" + message + ")", value -> {
+            ProcessIoDispatcher.INSTANCE.watch(process, new ProcessIoDispatcher.Listener() {
+                @Override
+                public void onOutput(String line) {
+                    sendMessage(ShellHandlerBase.EVENT_REDE, line + "\n");
+                }
 
-                            }));
-                        } catch (Exception ex) {
-                        }
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                @Override
+                public void onError(String line) {
+                    sendMessage(ShellHandlerBase.EVENT_READ_ERROR, line + "\n");
                 }
-            });
-            final Thread readerError = new Thread(() -> {
-                String line;
-                try {
-                    BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(errorStream, StandardCharsets.UTF_8));
-                    while ((line = bufferedReader.readLine()) != null) {
-                        try {
-                            final JSONObject message = new JSONObject();
-                            message.put("type", ShellHandlerBase.EVENT_READ_ERROR);
-                            message.put("message", line + "\n");
-                            webView.post(() -> webView.evaluateJavascript(callbackFunction + "(" + message + ")", value -> {
 
-                            }));
-                        } catch (Exception ex) {
-                        }
+                @Override
+                public void onExit(int status) {
+                    sendMessage(ShellHandlerBase.EVENT_EXIT, "" + status);
+                    if (onExit != null) {
+                        onExit.run();
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
-            });
-            final Process processFinal = process;
-            Thread waitExit = new Thread(() -> {
-                int status = -1;
-                try {
-                    status = processFinal.waitFor();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } finally {
+
+                private void sendMessage(int type, String text) {
                     try {
                         final JSONObject message = new JSONObject();
-                        message.put("type", ShellHandlerBase.EVENT_EXIT);
-                        message.put("message", "" + status);
+                        message.put("type", type);
+                        message.put("message", text);
                         webView.post(() -> webView.evaluateJavascript(callbackFunction + "(" + message + ")", value -> {
 
                         }));
                     } catch (Exception ex) {
                     }
-
-                    if (reader.isAlive()) {
-                        reader.interrupt();
-                    }
-                    if (readerError.isAlive()) {
-                        readerError.interrupt();
-                    }
-                    if (onExit != null) {
-                        onExit.run();
-                    }
                 }
             });
-
-            reader.start();
-            readerError.start();
-            waitExit.start();
         }
     }
 }
@@ -0,0 +1,171 @@
+package com.omarea.krscript.config
+
+import android.content.Context
+import android.os.Build
+import android.util.Log
+import com.omarea.krscript.model.NodeInfoBase
+import java.io.File
+import java.io.InputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.RandomAccessFile
+import java.io.Serializable
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+
+/**
+ * 页面配置的编译缓存：保存XML解析得到的节点树（执行脚本之前的静态部分）和需要执行的脚本
+ * 以配置路径、文件的版本标识（见PathAnalysis.getCurrentStamp，无法获取时为文件内容的MD5）、应用安装时间和系统版本为键
+ * 命中时不再读取和解析XML，只需重新执行脚本
+ */
+internal object PageConfigCache {
+    // 缓存格式变化时修改
+    private const val FORMAT_VERSION = 2
+
+    private const val CACHE_DIR = "kr-script/pages"
+
+    class CompiledPage(
+        val nodes: ArrayList<NodeInfoBase>,
+        val scripts: ArrayList<PageConfigReader.PendingScript>,
+        val pageCache: Boolean,
+        val resourceFiles: ArrayList<String>,
+        val resourceDirs: ArrayList<String>
+    ) : Serializable {
+        companion object {
+            private const val serialVersionUID = 1L
+        }
+    }
+
+    class Key(val path: String, val hash: String)
+
+    private var appVersion: String? = null
+
+    // 应用更新后节点类的结构可能变化，旧的缓存不再可用
+    private fun getAppVersion(context: Context): String {
+        appVersion?.run {
+            return this
+        }
+        val version = try {
+            val packageInfo = context.packageManager.getPackageInfo(context.packageName, 0)
+            "${packageInfo.lastUpdateTime}-${Build.VERSION.SDK_INT}"
+        } catch (ex: Exception) {
+            "${Build.VERSION.SDK_INT}"
+        }
+        appVersion = version
+        return version
+    }
+
+    /**
+     * @param stamp 文件的版本标识（大小和修改时间等，文件变化时随之变化）
+     */
+    fun key(path: String, stamp: String): Key {
+        return Key(path, stamp)
+    }
+
+    fun key(path: String, content: ByteArray): Key {
+        return Key(path, md5(content))
+    }
+
+    private fun getFile(context: Context, key: Key): File {
+        return File(File(context.cacheDir, CACHE_DIR), md5(key.path.toByteArray()))
+    }
+
+    /**
+     * @return 没有缓存或缓存已失效时返回null
+     */
+    fun load(context: Context, key: Key): CompiledPage? {
+        val file = getFile(context, key)
+        if (!file.exists()) {
+            return null
+        }
+        try {
+            RandomAccessFile(file, "r").use { randomAccessFile ->
+                val channel = randomAccessFile.channel
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                ObjectInputStream(ByteBufferInputStream(buffer)).use {
+                    if (it.readInt() != FORMAT_VERSION ||
+                            it.readUTF() != getAppVersion(context) ||
+                            it.readUTF() != key.path ||
+                            it.readUTF() != key.hash) {
+                        return null
+                    }
+                    return it.readObject() as CompiledPage
+                }
+            }
+        } catch (ex: Exception) {
+            Log.e("PageConfigCache", "" + ex.message)
+            file.delete()
+        }
+        return null
+    }
+
+    /**
+     * 保存节点树（需在执行脚本、移除不可见节点之前调用）
+     */
+    @Synchronized
+    fun save(context: Context, key: Key, page: CompiledPage) {
+        val file = getFile(context, key)
+        val temp = File(file.path + ".tmp")
+        try {
+            file.parentFile?.mkdirs()
+            ObjectOutputStream(temp.outputStream().buffered()).use {
+                it.writeInt(FORMAT_VERSION)
+                it.writeUTF(getAppVersion(context))
+                it.writeUTF(key.path)
+                it.writeUTF(key.hash)
+                it.writeObject(page)
+            }
+            temp.renameTo(file)
+        } catch (ex: Exception) {
+            Log.e("PageConfigCache", "" + ex.message)
+            temp.delete()
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    @Synchronized
+    fun clear(context: Context) {
+        File(context.cacheDir, CACHE_DIR).listFiles()?.forEach {
+            it.delete()
+        }
+    }
+
+    private fun md5(bytes: ByteArray): String {
+        val digest = MessageDigest.getInstance("MD5").digest(bytes)
+        val result = StringBuilder()
+        for (b in digest) {
+            val temp = Integer.toHexString(b.toInt() and 0xff)
+            if (temp.length == 1) {
+                result.append("0")
+            }
+            result.append(temp)
+        }
+        return result.toString()
+    }
+
+    // 从内存映射的文件读取
+    private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read(): Int {
+            return if (buffer.hasRemaining()) buffer.get().toInt() and 0xff else -1
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) {
+                return 0
+            }
+            if (!buffer.hasRemaining()) {
+                return -1
+            }
+            val count = minOf(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+
+        override fun available(): Int {
+            return buffer.remaining()
+        }
+    }
+}
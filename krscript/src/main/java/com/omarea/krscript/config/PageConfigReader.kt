@@ -9,16 +9,23 @@ import android.util.Log
 import android.util.Xml
 import android.widget.Toast
 import com.omarea.common.model.SelectItem
+import com.omarea.common.shell.KeepShellWarmUp
 import com.omarea.krscript.executor.ExtractAssets
-import com.omarea.krscript.executor.ScriptEnvironmen
+import com.omarea.krscript.executor.ScriptEnvironmenAsync
 import com.omarea.krscript.model.*
+import kotlinx.coroutines.runBlocking
 import org.xmlpull.v1.XmlPullParser
+import java.io.ByteArrayInputStream
 import java.io.InputStream
+import java.io.Serializable
+import java.util.Collections
+import java.util.IdentityHashMap
 import java.util.Locale.getDefault
 import androidx.core.graphics.toColorInt
 
 /**
  * Created by Hello on 2018/04/01.
+ * 读取分两个阶段：先解析XML生成节点树（遇到的脚本只记录下来），再并发执行所有脚本并将结果填入节点
  */
 class PageConfigReader {
     private var context: Context
@@ -29,6 +36,12 @@ class PageConfigReader {
     private var pageConfigStream: InputStream? = null
     private var parentDir: String = ""
 
+    /**
+     * 是否将列表项的desc-sh、summary-sh、get-state延迟到界面显示后执行（有缓存时仍直接使用缓存）
+     * 未执行的节点会被标记为deferred，由PageLayoutRender按是否在屏幕上优先加载
+     */
+    var deferValueScripts = false
+
     constructor(context: Context, pageConfig: String, parentDir: String?) {
         this.context = context
         this.pageConfig = pageConfig
@@ -49,7 +62,7 @@ class PageConfigReader {
                 pathAnalysis.parsePath(pageConfig).run {
                     val fileInputStream = this ?: return ArrayList()
                     pageConfigAbsPath = pathAnalysis.getCurrentAbsPath()
-                    return readConfigXml(fileInputStream)
+                    return readConfigXml(fileInputStream, pathAnalysis.getCurrentStamp())
                 }
             } catch (ex: Exception) {
                 Handler(Looper.getMainLooper()).post {
@@ -62,160 +75,214 @@ class PageConfigReader {
         return null
     }
 
-    private fun readConfigXml(fileInputStream: InputStream): ArrayList<NodeInfoBase>? {
+    /**
+     * @param stamp 文件的版本标识，为null时根据文件内容判断缓存是否有效
+     */
+    private fun readConfigXml(fileInputStream: InputStream, stamp: String? = null): ArrayList<NodeInfoBase>? {
         try {
-            val parser = Xml.newPullParser()// 获取xml解析器
-            parser.setInput(fileInputStream, "utf-8")// 参数分别为输入流和字符编码
-            var type = parser.eventType
-            val mainList: ArrayList<NodeInfoBase> = ArrayList()
-            var action: ActionNode? = null
-            var switch: SwitchNode? = null
-            var picker: PickerNode? = null
-            var group: GroupNode? = null
-            var page: PageNode? = null
-            var text: TextNode? = null
-            var isRootNode = true
-            while (type != XmlPullParser.END_DOCUMENT) { // 如果事件不等于文档结束事件就继续循环
-                when (type) {
-                    XmlPullParser.START_TAG -> {
-                        if ("group" == parser.name) {
-                            if (group != null && group.supported) {
-                                mainList.add(group)
-                            }
-                            group = groupNode(parser)
-                        } else if (group != null && !group.supported) {
-                            // 如果 group.supported !- true 跳过group内所有项
-                        } else {
-                            if ("page" == parser.name) {
-                                if (!isRootNode) {
-                                    page = clickbleNode(PageNode(pageConfigAbsPath), parser) as PageNode?
-                                    if (page != null) {
-                                        page = pageNode(page, parser)
-                                    }
-                                }
-                            } else if ("action" == parser.name) {
-                                action = runnableNode(ActionNode(pageConfigAbsPath), parser) as ActionNode?
-                            } else if ("switch" == parser.name) {
-                                switch = runnableNode(SwitchNode(pageConfigAbsPath), parser) as SwitchNode?
-                            } else if ("picker" == parser.name) {
-                                picker = runnableNode(PickerNode(pageConfigAbsPath), parser) as PickerNode?
-                                if (picker != null) {
-                                    pickerNode(picker, parser)
+            val mainList: ArrayList<NodeInfoBase>
+            if (pageConfigAbsPath.isEmpty()) {
+                // 从流读取的配置（通常是脚本动态输出的）不使用编译缓存
+                mainList = parse(fileInputStream)
+            } else {
+                // 有版本标识时命中缓存不需要读取文件内容
+                var input = fileInputStream
+                val key = if (stamp != null) {
+                    PageConfigCache.key(pageConfigAbsPath, stamp)
+                } else {
+                    val content = fileInputStream.use { it.readBytes() }
+                    input = ByteArrayInputStream(content)
+                    PageConfigCache.key(pageConfigAbsPath, content)
+                }
+                val compiled = PageConfigCache.load(context, key)
+                if (compiled != null) {
+                    input.close()
+                    mainList = restore(compiled)
+                } else {
+                    mainList = input.use { parse(it) }
+                    PageConfigCache.save(context, key, PageConfigCache.CompiledPage(
+                            mainList, ArrayList(visibilityScripts + valueScripts), pageCache, resourceFiles, resourceDirs))
+                }
+            }
+
+            resolve(mainList)
+            return mainList
+        } catch (ex: Exception) {
+            Handler(Looper.getMainLooper()).post {
+                Toast.makeText(context, "解析配置文件失败\n" + ex.message, Toast.LENGTH_LONG).show()
+            }
+            Log.e("KrConfig Fail！", "" + ex.message)
+        }
+
+        return null
+    }
+
+    // 从编译缓存恢复解析的结果（资源文件需要重新提取，以免已被删除）
+    private fun restore(compiled: PageConfigCache.CompiledPage): ArrayList<NodeInfoBase> {
+        pageCache = compiled.pageCache
+        for (item in compiled.scripts) {
+            (if (item.target == Target.VISIBLE) visibilityScripts else valueScripts).add(item)
+        }
+        for (file in compiled.resourceFiles) {
+            resourceFiles.add(file)
+            ExtractAssets(context).extractResource(file)
+        }
+        for (dir in compiled.resourceDirs) {
+            resourceDirs.add(dir)
+            ExtractAssets(context).extractResources(dir)
+        }
+        return compiled.nodes
+    }
+
+    // 解析XML，生成节点树并记录需要执行的脚本
+    private fun parse(fileInputStream: InputStream): ArrayList<NodeInfoBase> {
+        val parser = Xml.newPullParser()// 获取xml解析器
+        parser.setInput(fileInputStream, "utf-8")// 参数分别为输入流和字符编码
+        var type = parser.eventType
+        val mainList: ArrayList<NodeInfoBase> = ArrayList()
+        var action: ActionNode? = null
+        var switch: SwitchNode? = null
+        var picker: PickerNode? = null
+        var group: GroupNode? = null
+        var page: PageNode? = null
+        var text: TextNode? = null
+        var isRootNode = true
+        while (type != XmlPullParser.END_DOCUMENT) { // 如果事件不等于文档结束事件就继续循环
+            when (type) {
+                XmlPullParser.START_TAG -> {
+                    if ("group" == parser.name) {
+                        if (group != null && group.supported) {
+                            mainList.add(group)
+                        }
+                        group = groupNode(parser)
+                    } else if (group != null && !group.supported) {
+                        // 如果 group.supported !- true 跳过group内所有项
+                    } else {
+                        if ("page" == parser.name) {
+                            if (!isRootNode) {
+                                page = clickbleNode(PageNode(pageConfigAbsPath), parser) as PageNode?
+                                if (page != null) {
+                                    page = pageNode(page, parser)
                                 }
-                            } else if ("text" == parser.name) {
-                                text = mainNode(TextNode(pageConfigAbsPath), parser) as TextNode?
-                            } else if (page != null) {
-                                tagStartInPage(page, parser)
-                            } else if (action != null) {
-                                tagStartInAction(action, parser)
-                            } else if (switch != null) {
-                                tagStartInSwitch(switch, parser)
-                            } else if (picker != null) {
-                                tagStartInPicker(picker, parser)
-                            } else if (text != null) {
-                                tagStartInText(text, parser)
-                            } else if ("resource" == parser.name) {
-                                resourceNode(parser)
                             }
+                        } else if ("action" == parser.name) {
+                            action = runnableNode(ActionNode(pageConfigAbsPath), parser) as ActionNode?
+                        } else if ("switch" == parser.name) {
+                            switch = runnableNode(SwitchNode(pageConfigAbsPath), parser) as SwitchNode?
+                        } else if ("picker" == parser.name) {
+                            picker = runnableNode(PickerNode(pageConfigAbsPath), parser) as PickerNode?
+                            if (picker != null) {
+                                pickerNode(picker, parser)
+                            }
+                        } else if ("text" == parser.name) {
+                            text = mainNode(TextNode(pageConfigAbsPath), parser) as TextNode?
+                        } else if (page != null) {
+                            tagStartInPage(page, parser)
+                        } else if (action != null) {
+                            tagStartInAction(action, parser)
+                        } else if (switch != null) {
+                            tagStartInSwitch(switch, parser)
+                        } else if (picker != null) {
+                            tagStartInPicker(picker, parser)
+                        } else if (text != null) {
+                            tagStartInText(text, parser)
+                        } else if ("resource" == parser.name) {
+                            resourceNode(parser)
                         }
-                        isRootNode = false
                     }
-                    XmlPullParser.END_TAG ->
-                        if ("group" == parser.name) {
-                            if (group != null && group.supported) {
-                                mainList.add(group)
-                            }
-                            group = null
-                        } else if (group != null) {
-                            when (parser.name) {
-                                "page" -> {
-                                    tagEndInPage(page, parser)
-                                    if (page != null) {
-                                        group.children.add(page)
-                                    }
-                                    page = null
+                    if (isRootNode) {
+                        rootNode(parser)
+                    }
+                    isRootNode = false
+                }
+                XmlPullParser.END_TAG ->
+                    if ("group" == parser.name) {
+                        if (group != null && group.supported) {
+                            mainList.add(group)
+                        }
+                        group = null
+                    } else if (group != null) {
+                        when (parser.name) {
+                            "page" -> {
+                                tagEndInPage(page, parser)
+                                if (page != null) {
+                                    group.children.add(page)
                                 }
-                                "action" -> {
-                                    tagEndInAction(action, parser)
-                                    if (action != null) {
-                                        group.children.add(action)
-                                    }
-                                    action = null
+                                page = null
+                            }
+                            "action" -> {
+                                tagEndInAction(action, parser)
+                                if (action != null) {
+                                    group.children.add(action)
                                 }
-                                "switch" -> {
-                                    tagEndInSwitch(switch, parser)
-                                    if (switch != null) {
-                                        group.children.add(switch)
-                                    }
-                                    switch = null
+                                action = null
+                            }
+                            "switch" -> {
+                                tagEndInSwitch(switch, parser)
+                                if (switch != null) {
+                                    group.children.add(switch)
                                 }
-                                "picker" -> {
-                                    tagEndInPicker(picker, parser)
-                                    if (picker != null) {
-                                        group.children.add(picker)
-                                    }
-                                    picker = null
+                                switch = null
+                            }
+                            "picker" -> {
+                                tagEndInPicker(picker, parser)
+                                if (picker != null) {
+                                    group.children.add(picker)
                                 }
-                                "text" -> {
-                                    tagEndInText(text, parser)
-                                    if (text != null) {
-                                        group.children.add(text)
-                                    }
-                                    text = null
+                                picker = null
+                            }
+                            "text" -> {
+                                tagEndInText(text, parser)
+                                if (text != null) {
+                                    group.children.add(text)
                                 }
+                                text = null
                             }
-                        } else {
-                            when (parser.name) {
-                                "page" -> {
-                                    tagEndInPage(page, parser)
-                                    if (page != null) {
-                                        mainList.add(page)
-                                    }
-                                    page = null
+                        }
+                    } else {
+                        when (parser.name) {
+                            "page" -> {
+                                tagEndInPage(page, parser)
+                                if (page != null) {
+                                    mainList.add(page)
                                 }
-                                "action" -> {
-                                    tagEndInAction(action, parser)
-                                    if (action != null) {
-                                        mainList.add(action)
-                                    }
-                                    action = null
+                                page = null
+                            }
+                            "action" -> {
+                                tagEndInAction(action, parser)
+                                if (action != null) {
+                                    mainList.add(action)
                                 }
-                                "switch" -> {
-                                    tagEndInSwitch(switch, parser)
-                                    if (switch != null) {
-                                        mainList.add(switch)
-                                    }
-                                    switch = null
+                                action = null
+                            }
+                            "switch" -> {
+                                tagEndInSwitch(switch, parser)
+                                if (switch != null) {
+                                    mainList.add(switch)
                                 }
-                                "picker" -> {
-                                    tagEndInPicker(picker, parser)
-                                    if (picker != null) {
-                                        mainList.add(picker)
-                                    }
-                                    picker = null
+                                switch = null
+                            }
+                            "picker" -> {
+                                tagEndInPicker(picker, parser)
+                                if (picker != null) {
+                                    mainList.add(picker)
                                 }
-                                "text" -> {
-                                    tagEndInText(text, parser)
-                                    if (text != null) {
-                                        mainList.add(text)
-                                    }
-                                    text = null
+                                picker = null
+                            }
+                            "text" -> {
+                                tagEndInText(text, parser)
+                                if (text != null) {
+                                    mainList.add(text)
                                 }
+                                text = null
                             }
                         }
-                }
-                type = parser.next()// 继续下一个事件
-            }
-
-            return mainList
-        } catch (ex: Exception) {
-            Handler(Looper.getMainLooper()).post {
-                Toast.makeText(context, "解析配置文件失败\n" + ex.message, Toast.LENGTH_LONG).show()
+                    }
             }
-            Log.e("KrConfig Fail！", "" + ex.message)
+            type = parser.next()// 继续下一个事件
         }
 
-        return null
+        return mainList
     }
 
     private var actionParamInfos: ArrayList<ActionParamInfo>? = null
@@ -277,9 +344,7 @@ class PageConfigReader {
                         actionParamInfo.optionsSh = attrValue
                     }
                     "support", "visible" -> {
-                        if (executeResultRoot(context, attrValue) != "1") {
-                            actionParamInfo.supported = false
-                        }
+                        evaluateLater(actionParamInfo, attrValue, Target.VISIBLE)
                     }
                     "multiple" -> {
                         actionParamInfo.multiple = attrValue == "multiple" || attrValue == "true" || attrValue == "1"
@@ -292,7 +357,8 @@ class PageConfigReader {
                     }
                 }
             }
-            if (actionParamInfo.supported && actionParamInfo.name != null && actionParamInfo.name!!.isNotEmpty()) {
+            // 是否支持在解析完成后才能确定，不支持的参数届时再移除
+            if (actionParamInfo.name != null && actionParamInfo.name!!.isNotEmpty()) {
                 actionParamInfos!!.add(actionParamInfo)
             }
         } else if (actionParamInfo != null && "option" == parser.name) {
@@ -398,7 +464,8 @@ class PageConfigReader {
             when (attrName) {
                 "key", "index", "id" -> groupInfo.key = attrValue.trim()
                 "title" -> groupInfo.title = attrValue
-                "support", "visible" -> groupInfo.supported = executeResultRoot(context, attrValue) == "1"
+                "support", "visible" -> evaluateLater(groupInfo, attrValue, Target.VISIBLE)
+                "cache" -> groupInfo.cache = isCacheEnabled(attrValue)
             }
         }
         return groupInfo
@@ -476,21 +543,20 @@ class PageConfigReader {
                 "title" -> nodeInfoBase.title = attrValue
                 "desc" -> nodeInfoBase.desc = attrValue
                 "support", "visible" -> {
-                    if (executeResultRoot(context, attrValue) != "1") {
-                        return null
-                    }
+                    evaluateLater(nodeInfoBase, attrValue, Target.VISIBLE)
                 }
                 "desc-sh" -> {
                     nodeInfoBase.descSh = parser.getAttributeValue(i)
-                    nodeInfoBase.desc = executeResultRoot(context, nodeInfoBase.descSh)
+                    evaluateLater(nodeInfoBase, nodeInfoBase.descSh, Target.DESC)
                 }
                 "summary" -> {
                     nodeInfoBase.summary = parser.getAttributeValue(i)
                 }
                 "summary-sh" -> {
                     nodeInfoBase.summarySh = parser.getAttributeValue(i)
-                    nodeInfoBase.summary = executeResultRoot(context, nodeInfoBase.summarySh)
+                    evaluateLater(nodeInfoBase, nodeInfoBase.summarySh, Target.SUMMARY)
                 }
+                "cache" -> nodeInfoBase.cache = isCacheEnabled(attrValue)
             }
         }
         return nodeInfoBase
@@ -539,37 +605,52 @@ class PageConfigReader {
         }
     }
 
+    // 脚本输出为空时使用节点的文本内容
     private fun descNode(nodeInfoBase: NodeInfoBase, parser: XmlPullParser) {
+        var hasScript = false
         for (i in 0 until parser.attributeCount) {
             val attrName = parser.getAttributeName(i)
             if (attrName == "su" || attrName == "sh" || attrName == "desc-sh") {
                 nodeInfoBase.descSh = parser.getAttributeValue(i)
-                nodeInfoBase.desc = executeResultRoot(context, nodeInfoBase.descSh)
+                hasScript = true
             }
         }
-        if (nodeInfoBase.desc.isEmpty())
+        if (hasScript) {
+            // 脚本执行前（或延迟执行时）先显示节点内的文字
             nodeInfoBase.desc = parser.nextText()
+            evaluateLater(nodeInfoBase, nodeInfoBase.descSh, Target.DESC_OR_TEXT)
+        } else if (nodeInfoBase.desc.isEmpty()) {
+            nodeInfoBase.desc = parser.nextText()
+        }
     }
 
     private fun summaryNode(nodeInfoBase: NodeInfoBase, parser: XmlPullParser) {
+        var hasScript = false
         for (i in 0 until parser.attributeCount) {
             val attrName = parser.getAttributeName(i)
             if (attrName == "su" || attrName == "sh" || attrName == "summary-sh") {
                 nodeInfoBase.summarySh = parser.getAttributeValue(i)
-                nodeInfoBase.summary = executeResultRoot(context, nodeInfoBase.summarySh)
+                hasScript = true
             }
         }
-        if (nodeInfoBase.summary.isEmpty())
+        if (hasScript) {
+            // 脚本执行前（或延迟执行时）先显示节点内的文字
             nodeInfoBase.summary = parser.nextText()
+            evaluateLater(nodeInfoBase, nodeInfoBase.summarySh, Target.SUMMARY_OR_TEXT)
+        } else if (nodeInfoBase.summary.isEmpty()) {
+            nodeInfoBase.summary = parser.nextText()
+        }
     }
 
     private fun resourceNode(parser: XmlPullParser) {
         for (i in 0 until parser.attributeCount) {
             if (parser.getAttributeName(i) == "file") {
                 val file = parser.getAttributeValue(i).trim()
+                resourceFiles.add(file)
                 ExtractAssets(context).extractResource(file)
             } else if (parser.getAttributeName(i) == "dir") {
                 val file = parser.getAttributeValue(i).trim()
+                resourceDirs.add(file)
                 ExtractAssets(context).extractResources(file)
             }
         }
@@ -577,10 +658,7 @@ class PageConfigReader {
 
     private fun tagEndInSwitch(switchNode: SwitchNode?, parser: XmlPullParser) {
         if (switchNode != null) {
-            val shellResult = executeResultRoot(context, switchNode.getState)
-            switchNode.checked = shellResult != "error" && (shellResult == "1" || shellResult.lowercase(
-                getDefault()
-            ) == "true")
+            evaluateLater(switchNode, switchNode.getState, Target.STATE)
             if (switchNode.setState == null) {
                 switchNode.setState = ""
             }
@@ -694,8 +772,7 @@ class PageConfigReader {
             if (pickerNode.getState == null) {
                 pickerNode.getState = ""
             } else {
-                val shellResult = executeResultRoot(context, "" + pickerNode.getState)
-                pickerNode.value = shellResult
+                evaluateLater(pickerNode, "" + pickerNode.getState, Target.STATE)
             }
             if (pickerNode.setState == null) {
                 pickerNode.setState = ""
@@ -706,12 +783,189 @@ class PageConfigReader {
     private fun tagEndInText(textNode: TextNode?, parser: XmlPullParser) {
     }
 
+    // 脚本的结果填入的位置
+    internal enum class Target(val kind: ProbeResultCache.Kind) {
+        // 是否可见（节点、分组或参数）
+        VISIBLE(ProbeResultCache.Kind.SUPPORT),
+        DESC(ProbeResultCache.Kind.DESC),
+        // 结果为空时保留节点内的文字
+        DESC_OR_TEXT(ProbeResultCache.Kind.DESC),
+        SUMMARY(ProbeResultCache.Kind.SUMMARY),
+        SUMMARY_OR_TEXT(ProbeResultCache.Kind.SUMMARY),
+        // switch的选中状态、picker的值
+        STATE(ProbeResultCache.Kind.STATE)
+    }
+
+    // 解析过程中遇到的脚本，解析完成后统一执行（只记录数据，可随节点树一起保存到编译缓存）
+    internal class PendingScript(
+        // 脚本所属的节点（或参数），节点不可见时不再执行
+        val owner: Serializable,
+        val script: String,
+        val target: Target
+    ) : Serializable {
+        companion object {
+            private const val serialVersionUID = 1L
+        }
+    }
+
+    private val visibilityScripts = ArrayList<PendingScript>()
+    private val valueScripts = ArrayList<PendingScript>()
+    private val hiddenNodes: MutableSet<Any> = Collections.newSetFromMap(IdentityHashMap())
+
+    // 页面根节点上的 cache="false" 会关闭整个页面的结果缓存
+    private var pageCache = true
+
+    // 页面引用的资源（从编译缓存加载时需要重新提取）
+    private val resourceFiles = ArrayList<String>()
+    private val resourceDirs = ArrayList<String>()
+
+    /**
+     * 记录需要执行的脚本，解析完成后执行并将结果填入target（脚本为空时以空字符串作为结果）
+     */
+    private fun evaluateLater(owner: Serializable, script: String?, target: Target) {
+        (if (target == Target.VISIBLE) visibilityScripts else valueScripts).add(PendingScript(owner, script ?: "", target))
+    }
+
+    private fun apply(item: PendingScript, value: String) {
+        val owner = item.owner
+        when (item.target) {
+            Target.VISIBLE -> if (value != "1") {
+                when (owner) {
+                    is ActionParamInfo -> owner.supported = false
+                    is GroupNode -> owner.supported = false
+                    else -> hiddenNodes.add(owner)
+                }
+            }
+            Target.DESC -> (owner as NodeInfoBase).desc = value
+            Target.DESC_OR_TEXT -> (owner as NodeInfoBase).run { desc = value.ifEmpty { desc } }
+            Target.SUMMARY -> (owner as NodeInfoBase).summary = value
+            Target.SUMMARY_OR_TEXT -> (owner as NodeInfoBase).run { summary = value.ifEmpty { summary } }
+            Target.STATE -> when (owner) {
+                is SwitchNode -> owner.checked = value != "error" && (value == "1" || value.lowercase(getDefault()) == "true")
+                is PickerNode -> owner.value = value
+            }
+        }
+    }
+
+    private fun rootNode(parser: XmlPullParser) {
+        for (i in 0 until parser.attributeCount) {
+            if (parser.getAttributeName(i) == "cache") {
+                pageCache = isCacheEnabled(parser.getAttributeValue(i))
+            }
+        }
+    }
+
+    private fun isCacheEnabled(attrValue: String): Boolean {
+        return !(attrValue == "false" || attrValue == "0" || attrValue == "no-cache" || attrValue == "none")
+    }
+
+    // 从流读取的配置没有路径，无法区分页面，不使用缓存
+    private fun isCacheable(item: PendingScript): Boolean {
+        return pageCache && pageConfigAbsPath.isNotEmpty() && item.script.isNotEmpty() && (item.owner !is NodeInfoBase || item.owner.cache)
+    }
+
+    /**
+     * 执行解析时记录的脚本：先并发执行所有可见性脚本并移除不可见的节点，再在一次往返中执行剩余节点的脚本（desc-sh、summary-sh、get-state）
+     */
+    private fun resolve(mainList: ArrayList<NodeInfoBase>) {
+        evaluate(visibilityScripts)
+        visibilityScripts.clear()
+
+        // 移除不可见的节点，并收集剩余的节点和参数
+        val visible: MutableSet<Any> = Collections.newSetFromMap(IdentityHashMap())
+        val isHidden = { node: NodeInfoBase -> hiddenNodes.contains(node) || (node is GroupNode && !node.supported) }
+        mainList.removeAll(isHidden)
+        val nodes = ArrayList<NodeInfoBase>()
+        for (node in mainList) {
+            nodes.add(node)
+            if (node is GroupNode) {
+                node.children.removeAll(isHidden)
+                nodes.addAll(node.children)
+            }
+        }
+        for (node in nodes) {
+            visible.add(node)
+            if (!pageCache) {
+                node.cache = false
+            }
+            if (node is ActionNode) {
+                node.params?.run {
+                    removeAll { !it.supported }
+                    visible.addAll(this)
+                }
+            } else if (node is PageNode) {
+                node.pageMenuOptions?.run {
+                    removeAll { hiddenNodes.contains(it) }
+                    visible.addAll(this)
+                }
+            }
+        }
+        hiddenNodes.clear()
+
+        val scripts = valueScripts.filter { visible.contains(it.owner) }
+        valueScripts.clear()
+        if (!deferValueScripts) {
+            evaluate(scripts, true)
+            return
+        }
+        // 分组本身和菜单项、参数不会单独刷新，仍在读取时执行
+        val items: MutableSet<Any> = Collections.newSetFromMap(IdentityHashMap())
+        items.addAll(nodes.filter { it !is GroupNode })
+        val (deferrable, immediate) = scripts.partition { it.script.isNotEmpty() && items.contains(it.owner) }
+        evaluate(immediate, true)
+        for (item in deferrable) {
+            val cached = if (isCacheable(item)) ProbeResultCache.get(pageConfigAbsPath, item.script, item.target.kind) else null
+            if (cached != null) {
+                apply(item, cached)
+            } else {
+                (item.owner as NodeInfoBase).deferred = true
+            }
+        }
+    }
+
+    /**
+     * 执行脚本（内容相同的脚本只执行一次，有缓存的和空脚本不执行），然后按顺序填入结果
+     * @param batch 是否在同一个会话中一次往返执行（否则分散到各个会话并发执行）
+     */
+    private fun evaluate(scripts: List<PendingScript>, batch: Boolean = false) {
+        if (scripts.isEmpty()) {
+            return
+        }
+        val cached = scripts.map {
+            if (isCacheable(it)) ProbeResultCache.get(pageConfigAbsPath, it.script, it.target.kind) else null
+        }
+        val distinct = scripts.indices.filter { cached[it] == null && scripts[it].script.isNotEmpty() }.map { scripts[it].script }.distinct()
+        val values = HashMap<String, String>()
+        if (distinct.isNotEmpty()) {
+            val results = executeResultRootAll(context, distinct, batch)
+            for (i in distinct.indices) {
+                values[distinct[i]] = results[i]
+            }
+        }
+        for (i in scripts.indices) {
+            val item = scripts[i]
+            val value = cached[i] ?: values[item.script] ?: ""
+            if (cached[i] == null && isCacheable(item)) {
+                ProbeResultCache.put(pageConfigAbsPath, item.script, item.target.kind, value)
+            }
+            apply(item, value)
+        }
+    }
+
     private var vitualRootNode: NodeInfoBase? = null
-    private fun executeResultRoot(context: Context, scriptIn: String): String {
+    private fun executeResultRootAll(context: Context, scripts: List<String>, batch: Boolean): List<String> {
         if (vitualRootNode == null) {
             vitualRootNode = NodeInfoBase(pageConfigAbsPath)
+            // 解析完成后才等待会话预热完成，XML解析与su启动同时进行
+            KeepShellWarmUp.awaitRoot()
         }
 
-        return ScriptEnvironmen.executeResultRoot(context, scriptIn, vitualRootNode)
+        return runBlocking {
+            if (batch) {
+                ScriptEnvironmenAsync.executeResultRootBatch(context, scripts, scripts.map { vitualRootNode })
+            } else {
+                ScriptEnvironmenAsync.executeResultRootAll(context, scripts, vitualRootNode)
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import android.content.Context
 import com.omarea.common.shared.FileWrite
 import com.omarea.common.shell.KeepShellPublic
 import com.omarea.common.shell.RootFile
+import com.omarea.common.shell.RootHelper
 import com.omarea.krscript.FileOwner
 import java.io.File
 import java.io.InputStream
@@ -18,6 +19,35 @@ class PathAnalysis(private var context: Context, private var parentDir: String =
         return currentAbsPath
     }
 
+    /**
+     * 当前文件的版本标识（用于编译缓存，不需要读取文件内容）
+     * assets中的文件为应用的更新时间，磁盘上的文件为大小和修改时间
+     * @return 无法获取时返回null
+     */
+    fun getCurrentStamp(): String? {
+        val path = currentAbsPath
+        if (path.isEmpty()) {
+            return null
+        }
+        if (path.startsWith(ASSETS_FILE)) {
+            return try {
+                "assets-" + context.packageManager.getPackageInfo(context.packageName, 0).lastUpdateTime
+            } catch (ex: Exception) {
+                null
+            }
+        }
+        val file = File(path)
+        if (file.exists() && file.canRead()) {
+            return "${file.length()}-${file.lastModified()}"
+        }
+        RootHelper.stat(path)?.run {
+            if (isFile) {
+                return "$size-$lastModified"
+            }
+        }
+        return null
+    }
+
     fun parsePath(filePath: String): InputStream? {
         try {
             if (filePath.startsWith(ASSETS_FILE)) {
@@ -57,6 +87,15 @@ class PathAnalysis(private var context: Context, private var parentDir: String =
     }
 
     private fun useRootOpenFile(filePath: String): InputStream? {
+        // 优先通过ROOT辅助进程直接读取，不必复制到私有目录
+        RootHelper.stat(filePath)?.run {
+            if (isFile) {
+                RootHelper.openInputStream(filePath)?.run {
+                    currentAbsPath = filePath
+                    return this
+                }
+            }
+        }
         if (RootFile.fileExists(filePath)) {
             val dir = File(FileWrite.getPrivateFilePath(context, "kr-script"))
             if (!dir.exists()) {
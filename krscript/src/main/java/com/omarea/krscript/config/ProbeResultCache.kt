@@ -0,0 +1,74 @@
+package com.omarea.krscript.config
+
+/**
+ * 页面探测脚本（visible、desc-sh、summary-sh、get-state等）的结果缓存
+ * 以页面配置路径和脚本内容为键，不同类型的脚本有不同的有效期，重新进入刚访问过的页面时不必重新执行所有脚本
+ */
+object ProbeResultCache {
+    enum class Kind(
+        // 有效期（毫秒）
+        val ttl: Long
+    ) {
+        // 是否可见/是否支持：通常是设备特征检测，在进程存活期间有效
+        SUPPORT(Long.MAX_VALUE),
+        DESC(60000L),
+        SUMMARY(5000L),
+        STATE(5000L)
+    }
+
+    // 最多缓存的结果数
+    private const val MAX_ENTRIES = 1024
+
+    private data class Key(val page: String, val script: String, val kind: Kind)
+
+    private class Entry(val value: String, val expires: Long)
+
+    private val entries = object : LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Entry>): Boolean {
+            return size > MAX_ENTRIES
+        }
+    }
+
+    /**
+     * @return 没有缓存或已过期时返回null
+     */
+    fun get(page: String, script: String, kind: Kind): String? {
+        synchronized(entries) {
+            val key = Key(page, script, kind)
+            val entry = entries[key] ?: return null
+            if (System.currentTimeMillis() >= entry.expires) {
+                entries.remove(key)
+                return null
+            }
+            return entry.value
+        }
+    }
+
+    fun put(page: String, script: String, kind: Kind, value: String) {
+        // 执行失败的结果不缓存
+        if (value == "error") {
+            return
+        }
+        val now = System.currentTimeMillis()
+        val expires = if (kind.ttl == Long.MAX_VALUE) Long.MAX_VALUE else now + kind.ttl
+        synchronized(entries) {
+            entries[Key(page, script, kind)] = Entry(value, expires)
+        }
+    }
+
+    /**
+     * 使页面的缓存失效
+     * @param includeSupport 是否包括是否可见/是否支持的结果（页面需要重新加载时）
+     */
+    fun invalidate(page: String, includeSupport: Boolean) {
+        synchronized(entries) {
+            entries.keys.removeAll { it.page == page && (includeSupport || it.kind != Kind.SUPPORT) }
+        }
+    }
+
+    fun clear() {
+        synchronized(entries) {
+            entries.clear()
+        }
+    }
+}
@@ -1,18 +1,58 @@
 package com.omarea.krscript.executor;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.util.Log;
 
 import com.omarea.common.shared.FileWrite;
+import com.omarea.common.shared.LineEndingOutputStream;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 /**
  * Created by Hello on 2018/04/03.
+ * 提取过的资源记录在磁盘上的清单中（kr-script/assets.manifest：资源路径、输出大小、CRC32、APK版本），
+ * 应用重启后，同一版本APK的资源只要输出文件还在且大小一致就不再提取；APK更新后内容没有变化的资源也不再写入
  */
 
 public class ExtractAssets {
+    private static final String MANIFEST_FILE = "kr-script/assets.manifest";
+
+    // 并行提取目录内文件的线程数
+    private static final int EXTRACT_THREADS = 4;
+
     // 用于记录已经提取过的资源，避免重复提取浪费性能
-    private static final HashMap<String, String> extractHisotry = new HashMap<>();
+    private static final ConcurrentHashMap<String, String> extractHisotry = new ConcurrentHashMap<>();
+
+    private static class ManifestEntry {
+        final long size;
+        final long crc;
+        final String version;
+
+        ManifestEntry(long size, long crc, String version) {
+            this.size = size;
+            this.crc = crc;
+            this.version = version;
+        }
+    }
+
+    private static HashMap<String, ManifestEntry> manifest;
+    private static boolean manifestChanged = false;
+    private static String apkVersion;
 
     private final Context context;
 
@@ -20,7 +60,16 @@ public class ExtractAssets {
         this.context = context;
     }
 
-    private String extractScript(String fileName) {
+    /**
+     * 提取脚本（转换换行符）
+     */
+    public String extractScript(String fileName) {
+        String filePath = extractScriptInternal(fileName);
+        saveManifest(context);
+        return filePath;
+    }
+
+    private String extractScriptInternal(String fileName) {
         if (fileName == null || fileName.isEmpty()) {
             return null;
         }
@@ -33,7 +82,7 @@ public class ExtractAssets {
             fileName = fileName.substring("file:///android_asset/".length());
         }
 
-        String filePath = FileWrite.INSTANCE.writePrivateShellFile(fileName, fileName, context);
+        String filePath = extract(fileName, true);
 
         if (filePath != null) {
             extractHisotry.put(fileName, filePath);
@@ -43,6 +92,12 @@ public class ExtractAssets {
     }
 
     public String extractResource(String fileName) {
+        String filePath = extractResourceInternal(fileName);
+        saveManifest(context);
+        return filePath;
+    }
+
+    private String extractResourceInternal(String fileName) {
         if (fileName == null || fileName.isEmpty()) {
             return null;
         }
@@ -52,12 +107,12 @@ public class ExtractAssets {
         }
 
         if (fileName.endsWith(".sh")) {
-            return extractScript(fileName);
+            return extractScriptInternal(fileName);
         }
         if (fileName.startsWith("file:///android_asset/")) {
             fileName = fileName.substring("file:///android_asset/".length());
         }
-        String filePath = FileWrite.INSTANCE.writePrivateFile(context.getAssets(), fileName, fileName, context);
+        String filePath = extract(fileName, false);
 
         if (filePath != null) {
             extractHisotry.put(fileName, filePath);
@@ -66,6 +121,28 @@ public class ExtractAssets {
         return filePath;
     }
 
+    // 目录在清单中的记录（以/结尾，与文件的记录区分）
+    private static String getDirEntryName(String dir) {
+        if (dir.startsWith("file:///android_asset/")) {
+            dir = dir.substring("file:///android_asset/".length());
+        } else if (dir.endsWith("/")) {
+            dir = dir.substring(0, dir.length() - 1);
+        }
+        return dir + "/";
+    }
+
+    /**
+     * 目录是否已经按当前版本的APK完整提取过（只检查清单，不读取assets）
+     */
+    public boolean isExtracted(String dir) {
+        if (dir == null || dir.isEmpty()) {
+            return true;
+        }
+        String entryName = getDirEntryName(dir);
+        ManifestEntry entry = getManifestEntry(context, entryName);
+        return entry != null && entry.version.equals(getApkVersion(context)) && new File(getExtractPath(entryName)).isDirectory();
+    }
+
     public String extractResources(String dir) {
         if (dir == null || dir.isEmpty()) {
             return null;
@@ -75,35 +152,196 @@ public class ExtractAssets {
             return extractHisotry.get(dir);
         }
 
-        if (dir.startsWith("file:///android_asset/")) {
-            dir = dir.substring("file:///android_asset/".length());
-        } else if (dir.endsWith("/")) {
-            dir = dir.substring(0, dir.length() - 1);
-        }
+        String entryName = getDirEntryName(dir);
+        dir = entryName.substring(0, entryName.length() - 1);
 
         try {
-            String[] files = context.getAssets().list(dir);
-            if (files != null && files.length > 0) {
+            ArrayList<String> files = new ArrayList<>();
+            listAssets(dir, files);
+            if (files.isEmpty()) {
+                return extractResource(dir);
+            }
+
+            // 目录内的文件并行提取
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(EXTRACT_THREADS, files.size()));
+            boolean completed = true;
+            try {
+                List<Future<String>> results = new ArrayList<>();
                 for (String file : files) {
-                    String relativePath = dir + "/" + file;
-                    extractResources(relativePath);
+                    results.add(executor.submit(() -> extractResourceInternal(file)));
                 }
-                String outputDir = getExtractPath(dir);
-                extractHisotry.put(dir, outputDir);
-                return outputDir;
-            } else {
-                return extractResource(dir);
+                for (Future<String> result : results) {
+                    if (result.get() == null) {
+                        completed = false;
+                    }
+                }
+            } finally {
+                executor.shutdown();
             }
-        } catch (Exception ignored) {
+            // 所有文件都提取成功时记录目录，下次启动时可据此判断不需要等待提取
+            if (completed) {
+                putManifestEntry(entryName, new ManifestEntry(files.size(), 0, getApkVersion(context)));
+            }
+            saveManifest(context);
+
+            String outputDir = getExtractPath(dir);
+            extractHisotry.put(dir, outputDir);
+            return outputDir;
+        } catch (Exception ex) {
+            Log.e("ExtractAssets", "" + ex.getMessage());
         }
 
         return "";
     }
 
+    // 递归列出目录内的所有文件
+    private void listAssets(String dir, ArrayList<String> output) throws Exception {
+        String[] files = context.getAssets().list(dir);
+        if (files == null) {
+            return;
+        }
+        for (String file : files) {
+            String relativePath = dir + "/" + file;
+            String[] children = context.getAssets().list(relativePath);
+            if (children != null && children.length > 0) {
+                listAssets(relativePath, output);
+            } else {
+                output.add(relativePath);
+            }
+        }
+    }
+
     public String getExtractPath(String file) {
         return FileWrite.INSTANCE.getPrivateFilePath(
                 context,
                 (file.startsWith("file:///android_asset/") ? (file.substring("file:///android_asset/".length())) : file)
         );
     }
+
+    /**
+     * 提取单个资源，清单中记录的输出文件仍然有效时跳过
+     * @param script 是否为脚本（需要将换行符转换为\n）
+     * @return 输出文件路径，失败时返回null
+     */
+    private String extract(String fileName, boolean script) {
+        String filePath = getExtractPath(fileName);
+        File output = new File(filePath);
+        String version = getApkVersion(context);
+        ManifestEntry entry = getManifestEntry(context, fileName);
+        if (entry != null && entry.version.equals(version) && output.isFile() && output.length() == entry.size) {
+            return filePath;
+        }
+
+        try {
+            byte[] bytes = readAsset(fileName);
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+            long crc = crc32.getValue();
+            if (script) {
+                bytes = LineEndingOutputStream.normalize(bytes);
+                if (bytes.length == 0) {
+                    return null;
+                }
+            }
+
+            // APK更新后内容没有变化的资源，不必重新写入
+            if (!(entry != null && entry.crc == crc && output.isFile() && output.length() == bytes.length)) {
+                FileWrite.INSTANCE.writeAtomically(output, bytes);
+            }
+            putManifestEntry(fileName, new ManifestEntry(bytes.length, crc, version));
+            return filePath;
+        } catch (Exception ex) {
+            Log.e("ExtractAssets", fileName + " " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] readAsset(String fileName) throws Exception {
+        try (InputStream inputStream = context.getAssets().open(fileName)) {
+            return readAll(inputStream);
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(inputStream.available(), 4096));
+        byte[] bytes = new byte[65536];
+        int length;
+        while ((length = inputStream.read(bytes)) > 0) {
+            buffer.write(bytes, 0, length);
+        }
+        return buffer.toByteArray();
+    }
+
+    // APK的版本（versionCode和安装时间，调试时重新安装同一版本也会更新）
+    private static synchronized String getApkVersion(Context context) {
+        if (apkVersion == null) {
+            try {
+                PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+                apkVersion = packageInfo.versionCode + "-" + packageInfo.lastUpdateTime;
+            } catch (Exception ex) {
+                apkVersion = "";
+            }
+        }
+        return apkVersion;
+    }
+
+    private static synchronized ManifestEntry getManifestEntry(Context context, String fileName) {
+        if (manifest == null) {
+            manifest = loadManifest(context);
+        }
+        return manifest.get(fileName);
+    }
+
+    private static synchronized void putManifestEntry(String fileName, ManifestEntry entry) {
+        manifest.put(fileName, entry);
+        manifestChanged = true;
+    }
+
+    private static HashMap<String, ManifestEntry> loadManifest(Context context) {
+        HashMap<String, ManifestEntry> entries = new HashMap<>();
+        File file = new File(FileWrite.INSTANCE.getPrivateFilePath(context, MANIFEST_FILE));
+        if (!file.exists()) {
+            return entries;
+        }
+        try (InputStream inputStream = new FileInputStream(file)) {
+            for (String line : new String(readAll(inputStream), StandardCharsets.UTF_8).split("\n")) {
+                String[] columns = line.split("\t");
+                if (columns.length == 4) {
+                    entries.put(columns[0], new ManifestEntry(Long.parseLong(columns[1]), Long.parseLong(columns[2]), columns[3]));
+                }
+            }
+        } catch (Exception ex) {
+            Log.e("ExtractAssets", "" + ex.getMessage());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static synchronized void saveManifest(Context context) {
+        if (!manifestChanged) {
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet()) {
+            ManifestEntry value = entry.getValue();
+            content.append(entry.getKey()).append("\t").append(value.size).append("\t").append(value.crc).append("\t").append(value.version).append("\n");
+        }
+        File file = new File(FileWrite.INSTANCE.getPrivateFilePath(context, MANIFEST_FILE));
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            try (FileOutputStream stream = new FileOutputStream(temp)) {
+                stream.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (temp.renameTo(file)) {
+                manifestChanged = false;
+            }
+        } catch (Exception ex) {
+            Log.e("ExtractAssets", "" + ex.getMessage());
+            temp.delete();
+        }
+    }
 }
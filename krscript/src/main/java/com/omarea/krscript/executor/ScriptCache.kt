@@ -0,0 +1,223 @@
+package com.omarea.krscript.executor
+
+import android.content.Context
+import android.util.Log
+import com.omarea.common.shared.FileWrite
+import com.omarea.common.shared.LineEndingOutputStream
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * 内联脚本的缓存文件（按内容寻址：文件名为脚本内容的MD5）
+ * 内存中保存脚本内容到缓存文件路径的映射，命中时不再计算MD5、不再写文件
+ * 磁盘上的索引（kr-script/cache/index）记录缓存文件的大小和最近使用顺序，超出大小上限时淘汰最久未使用的文件
+ */
+object ScriptCache {
+    const val DEFAULT_MAX_SIZE = 4L * 1024 * 1024
+
+    // 内存中最多保存的脚本映射数
+    private const val MAX_MEMORY_ENTRIES = 512
+
+    private const val CACHE_DIR = "kr-script/cache"
+    private const val INDEX_FILE = "index"
+
+    // 最近这段时间内交给调用方的缓存文件可能还没被sh打开，淘汰时跳过
+    private const val IN_USE_TIME = 10000L
+
+    private class Entry(val hash: String, val size: Long, val path: String) {
+        val fileName: String
+            get() = "$hash.sh"
+
+        // 最近一次交给调用方的时间
+        var lastUsed = 0L
+    }
+
+    private var cacheDir: File? = null
+
+    // 缓存文件，按使用顺序排列（最久未使用的在前）
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private var totalSize = 0L
+
+    // 索引中最后（最近使用）的缓存文件，连续命中同一个时不重复写索引
+    private var lastHash: String? = null
+
+    // 脚本内容 -> 缓存文件
+    private val scripts = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>): Boolean {
+            return size > MAX_MEMORY_ENTRIES
+        }
+    }
+
+    @Volatile
+    var maxSize = DEFAULT_MAX_SIZE
+        set(value) {
+            field = value
+            synchronized(this) {
+                if (cacheDir != null && trim()) {
+                    saveIndex()
+                }
+            }
+        }
+
+    /**
+     * 加载索引，并清理索引之外（或已丢失）的缓存文件
+     */
+    @Synchronized
+    fun init(context: Context) {
+        if (cacheDir != null) {
+            return
+        }
+        val dir = File(context.filesDir, CACHE_DIR)
+        if (!dir.exists()) {
+            dir.mkdirs()
+        }
+        cacheDir = dir
+
+        val index = File(dir, INDEX_FILE)
+        if (index.exists()) {
+            try {
+                index.forEachLine { line ->
+                    val columns = line.split(" ")
+                    if (columns.size >= 2) {
+                        val file = File(dir, columns[0] + ".sh")
+                        if (file.exists()) {
+                            entries[columns[0]] = Entry(columns[0], file.length(), file.absolutePath)
+                        }
+                    }
+                }
+            } catch (ex: Exception) {
+                Log.e("ScriptCache", "" + ex.message)
+                entries.clear()
+            }
+        }
+        totalSize = entries.values.sumOf { it.size }
+
+        // 清理索引之外的文件（例如旧版本生成的缓存）
+        dir.listFiles()?.forEach {
+            if (it.name != INDEX_FILE && !entries.containsKey(it.name.removeSuffix(".sh"))) {
+                it.delete()
+            }
+        }
+        trim()
+        saveIndex()
+    }
+
+    /**
+     * 获取脚本对应的缓存文件路径（不存在时写入）
+     * @return 写入失败时返回空字符串
+     */
+    @Synchronized
+    fun get(context: Context, script: String): String {
+        scripts[script]?.run {
+            // 同时更新磁盘缓存的使用顺序（已被淘汰的需要重新写入）
+            if (entries[hash] === this) {
+                return use(this)
+            }
+        }
+        if (cacheDir == null) {
+            init(context)
+        }
+        val dir = cacheDir!!
+
+        val hash = md5(script)
+        val exists = entries[hash]
+        val file = File(dir, "$hash.sh")
+        if (exists != null && file.exists()) {
+            scripts[script] = exists
+            return use(exists)
+        }
+
+        var size = 0L
+        try {
+            FileWrite.writeAtomically(file) {
+                val outputStream = LineEndingOutputStream(it)
+                outputStream.write("#!/system/bin/sh\n\n".toByteArray())
+                outputStream.write(script.toByteArray())
+                // 结束时才会写入末尾的\r
+                outputStream.close()
+                size = outputStream.written
+            }
+        } catch (ex: Exception) {
+            Log.e("ScriptCache", "" + ex.message)
+            return ""
+        }
+        if (exists != null) {
+            totalSize -= exists.size
+        }
+        val entry = Entry(hash, size, file.absolutePath)
+        entry.lastUsed = System.currentTimeMillis()
+        entries[hash] = entry
+        totalSize += size
+        trim()
+        saveIndex()
+        scripts[script] = entry
+        return entry.path
+    }
+
+    // 记录使用时间，使用顺序有变化时写入索引
+    private fun use(entry: Entry): String {
+        entry.lastUsed = System.currentTimeMillis()
+        if (entry.hash != lastHash) {
+            saveIndex()
+        }
+        return entry.path
+    }
+
+    // 淘汰最久未使用的缓存文件，直到总大小不超过上限（最近交出去的文件可能正在使用，暂不淘汰，下次再处理）
+    private fun trim(): Boolean {
+        var changed = false
+        val now = System.currentTimeMillis()
+        val iterator = entries.values.iterator()
+        while (totalSize > maxSize && iterator.hasNext()) {
+            val entry = iterator.next()
+            if (now - entry.lastUsed < IN_USE_TIME) {
+                continue
+            }
+            iterator.remove()
+            totalSize -= entry.size
+            File(cacheDir, entry.fileName).delete()
+            changed = true
+        }
+        return changed
+    }
+
+    // 按使用顺序写入索引
+    private fun saveIndex() {
+        val dir = cacheDir ?: return
+        try {
+            val temp = File(dir, "$INDEX_FILE.tmp")
+            temp.writeText(entries.values.joinToString("") { "${it.hash} ${it.size}\n" })
+            temp.renameTo(File(dir, INDEX_FILE))
+            lastHash = entries.keys.lastOrNull()
+        } catch (ex: Exception) {
+            Log.e("ScriptCache", "" + ex.message)
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    @Synchronized
+    fun clear() {
+        scripts.clear()
+        for (entry in entries.values) {
+            File(cacheDir, entry.fileName).delete()
+        }
+        entries.clear()
+        totalSize = 0
+        saveIndex()
+    }
+
+    private fun md5(script: String): String {
+        val bytes = MessageDigest.getInstance("MD5").digest(script.toByteArray())
+        val result = StringBuilder()
+        for (b in bytes) {
+            val temp = Integer.toHexString(b.toInt() and 0xff)
+            if (temp.length == 1) {
+                result.append("0")
+            }
+            result.append(temp)
+        }
+        return result.toString()
+    }
+}
@@ -5,28 +5,33 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.os.Build;
 import android.os.Environment;
+import android.util.Log;
 
 import com.omarea.common.shared.FileWrite;
-import com.omarea.common.shell.KeepShell;
+import com.omarea.common.shell.KeepShellPool;
 import com.omarea.common.shell.KeepShellPublic;
+import com.omarea.common.shell.RootHelper;
+import com.omarea.common.shell.ShellMetrics;
+import com.omarea.common.shell.ShellResult;
 import com.omarea.common.shell.ShellTranslation;
 import com.omarea.krscript.FileOwner;
 import com.omarea.krscript.model.NodeInfoBase;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import android.provider.Settings;;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import java.util.TimeZone;;
+import java.util.concurrent.FutureTask;
 import java.lang.Runtime;
 import java.nio.file.Paths;
 import android.widget.Toast;
@@ -34,135 +39,240 @@ import android.widget.Toast;
 
 public class ScriptEnvironmen {
     private static final String ASSETS_FILE = "file:///android_asset/";
-    private static boolean inited = false;
+    private static volatile boolean inited = false;
     private static String environmentPath = "";
     private static String TOOKIT_DIR = "";
     private static boolean rooted = false;
-    private static KeepShell privateShell;
+    // 执行脚本使用的会话池（常驻环境模式下为residentShell，否则为sharedShell）
+    private static volatile KeepShellPool privateShell;
+    // ROOT模式下为公共会话池，否则为独立的非ROOT会话池
+    private static KeepShellPool sharedShell;
+    // 常驻环境模式使用的独立会话池，执行器环境不会影响公共会话池中的其它命令
+    private static KeepShellPool residentShell;
     private static ShellTranslation shellTranslation;
+    // 常驻环境模式：执行器环境在每个会话中只建立一次，每次执行脚本只需传入节点相关的变量
+    private static boolean residentEnvironment = false;
+    private static String emptyScriptPath = "";
+    // 后台提取工具箱的任务（执行脚本前才需要等待完成）
+    private static FutureTask<String> toolkitTask;
+    // 工具箱已按当前版本提取过（只需在后台校验），执行脚本前不需要等待
+    private static volatile boolean toolkitReady = true;
 
     public static boolean isInited() {
         return inited;
     }
 
+    // 使用上次保存的执行器和工具箱配置初始化（等待初始化完成）
     private static boolean init(Context context) {
-        SharedPreferences configSpf = context.getSharedPreferences("kr-script-config", Context.MODE_PRIVATE);
-
-        return init(context, configSpf.getString("executor", "kr-script/executor.sh"), configSpf.getString("toolkitDir", "kr-script/toolkit"));
+        return ScriptEnvironmenStartup.INSTANCE.awaitBlocking(context);
     }
 
+    /**
+     * 初始化执行环境，并等待完成
+     * 各步骤在后台并行执行（见ScriptEnvironmenStartup），不需要等待时可使用ScriptEnvironmenStartup.start
+     */
     public static boolean init(Context context, String executor, String toolkitDir) {
         if (inited) {
             return true;
         }
+        return ScriptEnvironmenStartup.INSTANCE.awaitBlocking(context, executor, toolkitDir);
+    }
 
+    // 初始化步骤：输出翻译、ROOT辅助、脚本缓存
+    static void initCaches(Context context) {
         shellTranslation = new ShellTranslation(context.getApplicationContext());
-        rooted = KeepShellPublic.INSTANCE.checkRoot();
-
-        try {
-            if (toolkitDir != null && !toolkitDir.isEmpty()) {
-                TOOKIT_DIR = new ExtractAssets(context).extractResources(toolkitDir);
-            }
-
-            String fileName = executor;
-            if (fileName.startsWith(ASSETS_FILE)) {
-                fileName = fileName.substring(ASSETS_FILE.length());
-            }
+        RootHelper.INSTANCE.init(context);
+        ScriptCache.INSTANCE.init(context);
+    }
 
-            InputStream inputStream = context.getAssets().open(fileName);
-            byte[] bytes = new byte[inputStream.available()];
-            long length = inputStream.read(bytes, 0, bytes.length);
-            String envShell = new String(bytes, Charset.defaultCharset()).replaceAll("\r", "");
+    // 初始化步骤：在后台提取工具箱，目录先创建好，执行器判断目录存在后才会将其添加到PATH（执行脚本前才需要等待提取完成）
+    static void startToolkit(Context context, String toolkitDir) {
+        if (toolkitDir == null || toolkitDir.isEmpty()) {
+            return;
+        }
+        final ExtractAssets extractAssets = new ExtractAssets(context);
+        String dir = extractAssets.getExtractPath(toolkitDir);
+        TOOKIT_DIR = dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+        new File(TOOKIT_DIR).mkdirs();
+        toolkitReady = extractAssets.isExtracted(toolkitDir);
+        toolkitTask = new FutureTask<>(() -> {
+            long start = System.currentTimeMillis();
+            String path = extractAssets.extractResources(toolkitDir);
+            ShellMetrics.INSTANCE.recordStartup("toolkit", System.currentTimeMillis() - start);
+            return path;
+        });
+        new Thread(toolkitTask, "ToolkitExtract").start();
+    }
 
-            HashMap<String, String> environment = getEnvironment(context);
-            for (String key : environment.keySet()) {
-                String value = environment.get(key);
-                if (value == null) {
-                    value = "";
-                }
-                envShell = envShell.replace("$({" + key + "})", value);
+    // 初始化步骤：读取执行器模板
+    static String readExecutor(Context context, String executor) throws Exception {
+        try (InputStream inputStream = context.getAssets().open(getExecutorFileName(executor))) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(inputStream.available(), 4096));
+            byte[] bytes = new byte[8192];
+            int length;
+            while ((length = inputStream.read(bytes)) > 0) {
+                buffer.write(bytes, 0, length);
             }
-            String outputPathAbs = FileWrite.INSTANCE.getPrivateFilePath(context, fileName);
-            envShell = envShell.replace("$({EXECUTOR_PATH})", outputPathAbs);
-
+            return new String(buffer.toByteArray(), Charset.defaultCharset()).replace("\r", "");
+        }
+    }
 
-            inited = FileWrite.INSTANCE.writePrivateFile(envShell.getBytes(Charset.defaultCharset()), fileName, context);
-            if (inited) {
-                environmentPath = outputPathAbs;
-            }
+    // 初始化步骤：替换执行器模板中的环境变量并写入（需要知道ROOT状态）
+    static boolean writeExecutor(Context context, String executor, String template, boolean rooted) {
+        ScriptEnvironmen.rooted = rooted;
+        String fileName = getExecutorFileName(executor);
+        String outputPathAbs = FileWrite.INSTANCE.getPrivateFilePath(context, fileName);
+        HashMap<String, String> environment = getEnvironment(context);
+        environment.put("EXECUTOR_PATH", outputPathAbs);
+        String envShell = applyTemplate(template, environment);
+
+        if (FileWrite.INSTANCE.writePrivateFile(envShell.getBytes(Charset.defaultCharset()), fileName, context)) {
+            environmentPath = outputPathAbs;
+            return true;
+        }
+        return false;
+    }
 
-            SharedPreferences.Editor configSpf = context.getSharedPreferences("kr-script-config", Context.MODE_PRIVATE).edit();
-            configSpf.putString("executor", executor);
-            configSpf.putString("toolkitDir", toolkitDir);
-            configSpf.apply();
+    // 初始化步骤：保存配置，创建执行脚本的会话池
+    static boolean createShell(Context context, String executor, String toolkitDir, boolean executorReady) {
+        SharedPreferences.Editor configSpf = context.getSharedPreferences("kr-script-config", Context.MODE_PRIVATE).edit();
+        configSpf.putString("executor", executor);
+        configSpf.putString("toolkitDir", toolkitDir);
+        configSpf.apply();
 
-            privateShell = rooted ? KeepShellPublic.INSTANCE.getDefaultInstance() : new KeepShell(rooted);
+        sharedShell = rooted ? KeepShellPublic.INSTANCE.getPool() : new KeepShellPool(KeepShellPool.DEFAULT_SIZE, false);
+        privateShell = sharedShell;
 
-            return inited;
-        } catch (Exception ex) {
-            return false;
+        if (FileWrite.INSTANCE.writePrivateFile(new byte[0], "kr-script/empty.sh", context)) {
+            emptyScriptPath = FileWrite.INSTANCE.getPrivateFilePath(context, "kr-script/empty.sh");
         }
+        inited = executorReady;
+        setResidentEnvironment(context, context.getSharedPreferences("kr-script-config", Context.MODE_PRIVATE).getBoolean("residentEnvironment", false));
+        return inited;
     }
 
-    private static String md5(String string) {
-        if (string.isEmpty()) {
-            return "";
+    private static String getExecutorFileName(String executor) {
+        if (executor.startsWith(ASSETS_FILE)) {
+            return executor.substring(ASSETS_FILE.length());
         }
+        return executor;
+    }
 
-        MessageDigest md5;
-        try {
-            md5 = MessageDigest.getInstance("MD5");
-            byte[] bytes = md5.digest(string.getBytes());
-            StringBuilder result = new StringBuilder();
-            for (byte b : bytes) {
-                String temp = Integer.toHexString(b & 0xff);
-                if (temp.length() == 1) {
-                    temp = "0" + temp;
-                }
-                result.append(temp);
+    /**
+     * 一次扫描替换模板中的 $({KEY})（没有对应值的保持原样）
+     */
+    static String applyTemplate(String template, Map<String, String> values) {
+        StringBuilder result = new StringBuilder(template.length() + 1024);
+        int position = 0;
+        while (true) {
+            int start = template.indexOf("$({", position);
+            if (start < 0) {
+                break;
+            }
+            int end = template.indexOf("})", start + 3);
+            if (end < 0) {
+                break;
+            }
+            String key = template.substring(start + 3, end);
+            if (values.containsKey(key)) {
+                String value = values.get(key);
+                result.append(template, position, start).append(value == null ? "" : value);
+                position = end + 2;
+            } else {
+                result.append(template, position, start + 3);
+                position = start + 3;
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
         }
+        result.append(template, position, template.length());
+        return result.toString();
+    }
 
-        return "";
+    /**
+     * 工具箱是否需要提取且尚未完成（首次安装或更新后），此时启动流程会等待提取完成，避免之后在主线程等待
+     */
+    static boolean isToolkitPending() {
+        FutureTask<String> task = toolkitTask;
+        return !toolkitReady && task != null && !task.isDone();
     }
 
-    private static String createShellCache(Context context, String script) {
-        String md5 = md5(script);
-        String outputPath = "kr-script/cache/" + md5 + ".sh";
-        if (new File(outputPath).exists()) {
-            return outputPath;
+    /**
+     * 等待工具箱提取完成（已按当前版本提取过时直接返回）
+     */
+    static void awaitToolkit() {
+        if (toolkitReady) {
+            return;
         }
-
-        byte[] bytes = ("#!/system/bin/sh\n\n" + script)
-                .replaceAll("\r\n", "\n")
-                .replaceAll("\r\t", "\t")
-                .replaceAll("\r", "\n")
-                .getBytes();
-        if (FileWrite.INSTANCE.writePrivateFile(bytes, outputPath, context)) {
-            return FileWrite.INSTANCE.getPrivateFilePath(context, outputPath);
+        FutureTask<String> task = toolkitTask;
+        if (task != null) {
+            try {
+                task.get();
+            } catch (Exception ex) {
+                Log.e("ScriptEnvironmen", "" + ex.getMessage());
+            }
         }
-        return "";
+    }
+
+    private static String createShellCache(Context context, String script) {
+        return ScriptCache.INSTANCE.get(context, script);
     }
 
     private static String extractScript(Context context, String fileName) {
         if (fileName.startsWith(ASSETS_FILE)) {
             fileName = fileName.substring(ASSETS_FILE.length());
         }
-        return FileWrite.INSTANCE.writePrivateShellFile(fileName, fileName, context);
+        // 通过提取清单判断是否需要重新提取（不再每次执行都重新写入）
+        return new ExtractAssets(context).extractScript(fileName);
     }
 
     public static String executeResultRoot(Context context, String script, NodeInfoBase nodeInfoBase) {
+        ShellResult result = executeResult(context, script, nodeInfoBase);
+        return result.isFailed() ? "error" : result.getStdout();
+    }
+
+    /**
+     * 执行脚本并获取结果（包含退出状态、错误输出和耗时）
+     */
+    public static ShellResult executeResult(Context context, String script, NodeInfoBase nodeInfoBase) {
+        String command = buildCommand(context, script, nodeInfoBase);
+        if (command == null) {
+            return new ShellResult("", 0);
+        }
+        ShellResult result = privateShell.doCmdResult(command);
+        recordMetrics(nodeInfoBase, script, result);
+        return translateResult(result);
+    }
+
+    // 按页面和节点记录脚本耗时（用于诊断页面）
+    static void recordMetrics(NodeInfoBase nodeInfoBase, String script, ShellResult result) {
+        ShellMetrics.INSTANCE.recordScript(getMetricsPage(nodeInfoBase), getMetricsNode(nodeInfoBase), script, result);
+    }
+
+    static String getMetricsPage(NodeInfoBase nodeInfoBase) {
+        return nodeInfoBase == null ? "" : nodeInfoBase.getCurrentPageConfigPath();
+    }
+
+    static String getMetricsNode(NodeInfoBase nodeInfoBase) {
+        if (nodeInfoBase == null) {
+            return "";
+        }
+        return nodeInfoBase.getKey().isEmpty() ? nodeInfoBase.getTitle() : nodeInfoBase.getKey();
+    }
+
+    /**
+     * 生成在会话中执行脚本的命令（包括页面相关的环境变量），脚本为空时返回null
+     */
+    static String buildCommand(Context context, String script, NodeInfoBase nodeInfoBase) {
         if (!inited) {
             init(context);
         }
 
         if (script == null || script.isEmpty()) {
-            return "";
+            return null;
         }
 
+        // 脚本可能用到工具箱中的命令
+        awaitToolkit();
+
         String script2 = script.trim();
         String path;
         if (script2.startsWith(ASSETS_FILE)) {
@@ -194,14 +304,65 @@ public class ScriptEnvironmen {
         }
 
         stringBuilder.append("\n\n");
-        stringBuilder.append(environmentPath + " \"" + path + "\"");
-        if (shellTranslation != null) {
-            return shellTranslation.resolveRow(
-                privateShell.doCmdSync(stringBuilder.toString())
-            );
+        if (residentEnvironment) {
+            // 命令本身就在子shell中执行，导出的变量不会影响会话
+            stringBuilder.append("export START_TIME=").append(System.currentTimeMillis() / 1000).append("\n");
+            stringBuilder.append("if [ -f \"").append(path).append("\" ]; then\n");
+            stringBuilder.append(". \"").append(path).append("\"\n");
+            stringBuilder.append("else\n");
+            stringBuilder.append("echo \"").append(path).append(" 已丢失\" 1>&2\n");
+            stringBuilder.append("fi");
         } else {
-            return privateShell.doCmdSync(stringBuilder.toString());
+            stringBuilder.append(environmentPath + " \"" + path + "\"");
         }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * 启用或停用常驻环境模式（默认停用）
+     * 启用后，执行器脚本在每个会话启动时执行一次（传入空脚本），其中的变量、PATH、起始目录对之后的所有命令生效，
+     * 每次执行脚本时只在子shell中导出页面相关变量后直接执行脚本，不再每次运行执行器脚本
+     * 常驻环境使用独立的会话池（与公共会话池大小相同），不会影响公共会话池中的其它命令；START_TIME 由应用传入
+     * 初始化完成前调用时只保存设置，初始化完成后生效
+     */
+    public static synchronized void setResidentEnvironment(Context context, boolean enabled) {
+        context.getSharedPreferences("kr-script-config", Context.MODE_PRIVATE).edit().putBoolean("residentEnvironment", enabled).apply();
+        boolean available = enabled && inited && !emptyScriptPath.isEmpty() && sharedShell != null;
+        residentEnvironment = available;
+        if (available) {
+            if (residentShell == null) {
+                residentShell = new KeepShellPool(sharedShell.getSize(), rooted, "resident");
+                residentShell.setInitScript(". \"" + environmentPath + "\" \"" + emptyScriptPath + "\"");
+            }
+            privateShell = residentShell;
+        } else {
+            if (sharedShell != null) {
+                privateShell = sharedShell;
+            }
+            if (residentShell != null) {
+                residentShell.tryExit();
+                residentShell = null;
+            }
+        }
+    }
+
+    public static boolean isResidentEnvironment() {
+        return residentEnvironment;
+    }
+
+    static KeepShellPool getShellPool() {
+        return privateShell;
+    }
+
+    // 记录错误输出，并对输出结果进行ResourceID翻译
+    static ShellResult translateResult(ShellResult result) {
+        if (!result.getStderr().isEmpty()) {
+            Log.e("ScriptEnvironmen", result.getStderr());
+        }
+        if (shellTranslation != null && !result.isFailed()) {
+            return result.withStdout(shellTranslation.resolveRow(result.getStdout()));
+        }
+        return result;
     }
 
     private static String getStartPath(Context context) {
@@ -288,6 +449,9 @@ public class ScriptEnvironmen {
             return "";
         }
 
+        // 脚本可能用到工具箱中的命令
+        awaitToolkit();
+
         String script2 = script.trim();
         String cachePath;
         if (script2.startsWith(ASSETS_FILE)) {
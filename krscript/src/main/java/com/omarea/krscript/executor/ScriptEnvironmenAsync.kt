@@ -0,0 +1,109 @@
+package com.omarea.krscript.executor
+
+import android.content.Context
+import com.omarea.common.shell.KeepShellPool
+import com.omarea.common.shell.ShellResult
+import com.omarea.krscript.model.NodeInfoBase
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+
+/**
+ * ScriptEnvironmen 的挂起版本，供界面在lifecycleScope中调用
+ * 执行环境尚未初始化完成时挂起等待（不阻塞调用方线程）
+ */
+object ScriptEnvironmenAsync {
+    // 界面刷新类脚本的默认超时时间
+    const val DEFAULT_TIMEOUT = 30000L
+
+    // 同时执行的脚本数上限（连接池的会话数，执行环境初始化完成前使用默认会话数）
+    val parallelism: Int
+        get() = ScriptEnvironmen.getShellPool()?.size ?: KeepShellPool.DEFAULT_SIZE
+
+    suspend fun executeResult(context: Context, script: String?, nodeInfoBase: NodeInfoBase?, timeout: Long = DEFAULT_TIMEOUT): ShellResult {
+        ScriptEnvironmenStartup.await(context)
+        val command = withContext(Dispatchers.IO) {
+            ScriptEnvironmen.buildCommand(context, script, nodeInfoBase)
+        } ?: return ShellResult("", 0)
+        val result = ScriptEnvironmen.getShellPool().exec(command, timeout)
+        ScriptEnvironmen.recordMetrics(nodeInfoBase, script, result)
+        return ScriptEnvironmen.translateResult(result)
+    }
+
+    /**
+     * 与 ScriptEnvironmen.executeResultRoot 一致，执行失败时返回 "error"
+     */
+    suspend fun executeResultRoot(context: Context, script: String?, nodeInfoBase: NodeInfoBase?): String {
+        val result = executeResult(context, script, nodeInfoBase)
+        return if (result.isFailed) "error" else result.stdout
+    }
+
+    /**
+     * 并发执行一组脚本，同时执行的数量不超过连接池的会话数（等待会话时挂起，不占用线程）
+     * @return 与scripts顺序一致的结果，执行失败时为 "error"
+     */
+    suspend fun executeResultRootAll(context: Context, scripts: List<String>, nodeInfoBase: NodeInfoBase?, timeout: Long = DEFAULT_TIMEOUT): List<String> {
+        if (scripts.isEmpty()) {
+            return emptyList()
+        }
+        ScriptEnvironmenStartup.await(context)
+        val commands = withContext(Dispatchers.IO) {
+            scripts.map { ScriptEnvironmen.buildCommand(context, it, nodeInfoBase) }
+        }
+        val pool = ScriptEnvironmen.getShellPool()
+        val semaphore = Semaphore(pool.size)
+        return coroutineScope {
+            commands.mapIndexed { index, command ->
+                async {
+                    if (command == null) {
+                        return@async ""
+                    }
+                    val result = semaphore.withPermit { pool.exec(command, timeout) }
+                    ScriptEnvironmen.recordMetrics(nodeInfoBase, scripts[index], result)
+                    ScriptEnvironmen.translateResult(result).let { if (it.isFailed) "error" else it.stdout }
+                }
+            }.awaitAll()
+        }
+    }
+
+    /**
+     * 分批执行一组脚本：按连接池的会话数分为几批，每批在一个会话中一次往返执行，各批在不同的会话中同时执行
+     * （每个脚本在各自的子shell中执行，输出和退出状态分别返回，互不影响）
+     * @param nodes 与scripts一一对应，决定各脚本的页面环境变量
+     * @return 与scripts顺序一致的结果，执行失败时为 "error"
+     */
+    suspend fun executeResultRootBatch(context: Context, scripts: List<String>, nodes: List<NodeInfoBase?>): List<String> {
+        if (scripts.isEmpty()) {
+            return emptyList()
+        }
+        ScriptEnvironmenStartup.await(context)
+        val commands = withContext(Dispatchers.IO) {
+            scripts.indices.map { ScriptEnvironmen.buildCommand(context, scripts[it], nodes[it]) }
+        }
+        val indices = commands.indices.filter { commands[it] != null }
+        val values = MutableList(scripts.size) { "" }
+        if (indices.isEmpty()) {
+            return values
+        }
+        val pool = ScriptEnvironmen.getShellPool()
+        // 平均分配到各个会话，批数不超过会话数
+        val chunkSize = (indices.size + pool.size - 1) / pool.size
+        coroutineScope {
+            indices.chunked(chunkSize).map { chunk ->
+                async(Dispatchers.IO) {
+                    val results = pool.doCmdBatch(chunk.map { commands[it]!! })
+                    for (i in chunk.indices) {
+                        val index = chunk[i]
+                        ScriptEnvironmen.recordMetrics(nodes[index], scripts[index], results[i])
+                        values[index] = ScriptEnvironmen.translateResult(results[i]).let { if (it.isFailed) "error" else it.stdout }
+                    }
+                }
+            }.awaitAll()
+        }
+        return values
+    }
+}
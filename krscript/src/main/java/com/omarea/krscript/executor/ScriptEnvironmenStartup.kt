@@ -0,0 +1,133 @@
+package com.omarea.krscript.executor
+
+import android.content.Context
+import android.util.Log
+import com.omarea.common.shell.KeepShellWarmUp
+import com.omarea.common.shell.ShellMetrics
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.runBlocking
+
+/**
+ * 执行环境的启动流程：各步骤在后台并行执行，通过Deferred通知完成
+ * ROOT检查（会话预热）、工具箱提取、执行器模板读取、缓存初始化互不依赖，同时开始；
+ * 生成执行器（需要ROOT状态）和创建会话池在ROOT检查完成后进行。每个步骤的耗时记录到ShellMetrics
+ * 工具箱需要重新提取时（首次安装或更新后），启动流程等待提取完成，之后执行脚本不会在主线程上等待提取
+ * 应用启动时调用start，之后的脚本执行只需等待已在进行的流程，不会在首个请求的线程上从头初始化
+ */
+object ScriptEnvironmenStartup {
+    private const val DEFAULT_EXECUTOR = "kr-script/executor.sh"
+    private const val DEFAULT_TOOLKIT_DIR = "kr-script/toolkit"
+
+    // 初始化流程跟随进程存在，某次失败不影响之后重新开始
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    @Volatile
+    private var ready: Deferred<Boolean>? = null
+
+    /**
+     * 开始初始化（已在进行或已成功时返回同一个Deferred，上次失败时重新开始）
+     * @return 完成后得到是否初始化成功
+     */
+    @Synchronized
+    fun start(context: Context, executor: String, toolkitDir: String?): Deferred<Boolean> {
+        ready?.run {
+            if (!isCompleted || ScriptEnvironmen.isInited()) {
+                return this
+            }
+        }
+        val appContext = context.applicationContext
+        val task = scope.async {
+            step("total") {
+                run(appContext, executor, toolkitDir)
+            }
+        }
+        ready = task
+        return task
+    }
+
+    /**
+     * 使用上次保存的执行器和工具箱配置开始初始化
+     */
+    fun start(context: Context): Deferred<Boolean> {
+        ready?.run {
+            if (!isCompleted || ScriptEnvironmen.isInited()) {
+                return this
+            }
+        }
+        val config = context.getSharedPreferences("kr-script-config", Context.MODE_PRIVATE)
+        return start(context, config.getString("executor", DEFAULT_EXECUTOR)!!, config.getString("toolkitDir", DEFAULT_TOOLKIT_DIR))
+    }
+
+    val isReady: Boolean
+        get() = ScriptEnvironmen.isInited()
+
+    /**
+     * 等待初始化完成（尚未开始时使用上次保存的配置开始），挂起不占用线程
+     */
+    suspend fun await(context: Context): Boolean {
+        if (ScriptEnvironmen.isInited()) {
+            return true
+        }
+        return start(context).await()
+    }
+
+    /**
+     * 阻塞等待初始化完成，供后台线程中的同步调用使用
+     */
+    fun awaitBlocking(context: Context): Boolean {
+        if (ScriptEnvironmen.isInited()) {
+            return true
+        }
+        val task = start(context)
+        return runBlocking { task.await() }
+    }
+
+    fun awaitBlocking(context: Context, executor: String, toolkitDir: String?): Boolean {
+        val task = start(context, executor, toolkitDir)
+        return runBlocking { task.await() }
+    }
+
+    private suspend fun run(context: Context, executor: String, toolkitDir: String?): Boolean {
+        return try {
+            coroutineScope {
+                // 工具箱目录在生成执行器之前确定（TOOLKIT变量），提取本身在后台进行
+                step("toolkit-dir") { ScriptEnvironmen.startToolkit(context, toolkitDir) }
+
+                // 会话预热已在进行时直接等待其结果
+                val root = async { step("root") { KeepShellWarmUp.await() } }
+                val template = async { step("executor-read") { ScriptEnvironmen.readExecutor(context, executor) } }
+                val caches = async { step("caches") { ScriptEnvironmen.initCaches(context) } }
+
+                val rooted = root.await()
+                val executorReady = step("executor-write") {
+                    ScriptEnvironmen.writeExecutor(context, executor, template.await(), rooted)
+                }
+                caches.await()
+                val ready = step("shell") {
+                    ScriptEnvironmen.createShell(context, executor, toolkitDir, executorReady)
+                }
+                if (ScriptEnvironmen.isToolkitPending()) {
+                    step("toolkit-wait") { ScriptEnvironmen.awaitToolkit() }
+                }
+                ready
+            }
+        } catch (ex: Exception) {
+            Log.e("ScriptEnvironmen", "" + ex.message)
+            false
+        }
+    }
+
+    private inline fun <T> step(name: String, action: () -> T): T {
+        val start = System.currentTimeMillis()
+        try {
+            return action()
+        } finally {
+            ShellMetrics.recordStartup(name, System.currentTimeMillis() - start)
+        }
+    }
+}
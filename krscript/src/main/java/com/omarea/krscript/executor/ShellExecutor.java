@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.omarea.common.shell.ShellMetrics;
 import com.omarea.krscript.model.RunnableNode;
 import com.omarea.krscript.model.ShellHandlerBase;
 
@@ -34,12 +35,25 @@ public class ShellExecutor {
             return null;
         }
 
+        // 记录操作从开始到进程结束的耗时，退出状态不为0时记为失败
+        final long startTime = System.currentTimeMillis();
+        final Runnable exitRunnable = onExit;
+        final SimpleShellWatcher.OnExitListener onExitListener = status -> {
+            ShellMetrics.INSTANCE.recordScript(
+                    ScriptEnvironmen.getMetricsPage(nodeInfo),
+                    ScriptEnvironmen.getMetricsNode(nodeInfo),
+                    cmds,
+                    System.currentTimeMillis() - startTime,
+                    status != 0);
+            if (exitRunnable != null) {
+                exitRunnable.run();
+            }
+        };
+
         final Process process = ScriptEnvironmen.getRuntime();
         if (process == null) {
             Toast.makeText(context, "Failed to start command line process", Toast.LENGTH_SHORT).show();
-            if (onExit != null) {
-                onExit.run();
-            }
+            onExitListener.onExit(-1);
         } else {
             final Runnable forceStopRunnable = (nodeInfo.getInterruptable() || nodeInfo.getShell().equals(RunnableNode.Companion.getShellModeBgTask()))? (() -> {
                 /*
@@ -73,7 +87,7 @@ public class ShellExecutor {
                     Log.e("KrScriptError", Objects.requireNonNull(ex.getMessage()));
                 }
             }) : null;
-            new SimpleShellWatcher().setHandler(context, process, shellHandlerBase, onExit);
+            new SimpleShellWatcher().setHandler(context, process, shellHandlerBase, onExitListener);
 
             final OutputStream outputStream = process.getOutputStream();
             DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
@@ -2,74 +2,51 @@ package com.omarea.krscript.executor;
 
 import android.content.Context;
 
+import com.omarea.common.shell.ProcessIoDispatcher;
 import com.omarea.common.shell.ShellTranslation;
 import com.omarea.krscript.model.ShellHandlerBase;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-
 public class SimpleShellWatcher {
+    public interface OnExitListener {
+        /**
+         * 进程已结束
+         * @param status 进程的退出状态
+         */
+        void onExit(int status);
+    }
 
     /**
-     * 设置日志处理Handler
+     * 设置日志处理Handler（进程的输出由ProcessIoDispatcher的共享线程读取）
      *
      * @param process          Runtime进程
      * @param shellHandlerBase ShellHandlerBase
+     * @param onExit           进程结束后的回调（可为null）
      */
-    public void setHandler(Context context, Process process, final ShellHandlerBase shellHandlerBase, final Runnable onExit) {
+    public void setHandler(Context context, Process process, final ShellHandlerBase shellHandlerBase, final OnExitListener onExit) {
         final ShellTranslation shellTranslation = new ShellTranslation(context);
 
-        final InputStream inputStream = process.getInputStream();
-        final InputStream errorStream = process.getErrorStream();
-        final Thread reader = new Thread(() -> {
-            String line;
-            try {
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-                while ((line = bufferedReader.readLine()) != null) {
-                    shellHandlerBase.sendMessage(
-                        shellHandlerBase.obtainMessage(ShellHandlerBase.EVENT_REDE, shellTranslation.resolveRow(line) + "\n")
-                    );
-                }
-            } catch (Exception ignored) {
+        ProcessIoDispatcher.INSTANCE.watch(process, new ProcessIoDispatcher.Listener() {
+            @Override
+            public void onOutput(String line) {
+                shellHandlerBase.sendMessage(
+                    shellHandlerBase.obtainMessage(ShellHandlerBase.EVENT_REDE, shellTranslation.resolveRow(line) + "\n")
+                );
             }
-        });
-        final Thread readerError = new Thread(() -> {
-            String line;
-            try {
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(errorStream, StandardCharsets.UTF_8));
-                while ((line = bufferedReader.readLine()) != null) {
-                    shellHandlerBase.sendMessage(
-                        shellHandlerBase.obtainMessage(ShellHandlerBase.EVENT_READ_ERROR, shellTranslation.resolveRow(line) + "\n")
-                    );
-                }
-            } catch (Exception ignored) {
+
+            @Override
+            public void onError(String line) {
+                shellHandlerBase.sendMessage(
+                    shellHandlerBase.obtainMessage(ShellHandlerBase.EVENT_READ_ERROR, shellTranslation.resolveRow(line) + "\n")
+                );
             }
-        });
-        final Process processFinal = process;
-        Thread waitExit = new Thread(() -> {
-            int status = -1;
-            try {
-                status = processFinal.waitFor();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } finally {
+
+            @Override
+            public void onExit(int status) {
                 shellHandlerBase.sendMessage(shellHandlerBase.obtainMessage(ShellHandlerBase.EVENT_EXIT, status));
-                if (reader.isAlive()) {
-                    reader.interrupt();
-                }
-                if (readerError.isAlive()) {
-                    readerError.interrupt();
-                }
                 if (onExit != null) {
-                    onExit.run();
+                    onExit.onExit(status);
                 }
             }
         });
-
-        reader.start();
-        readerError.start();
-        waitExit.start();
     }
 }
@@ -3,5 +3,9 @@ package com.omarea.krscript.model
 import java.util.*
 
 class ActionNode(currentConfigXml: String) : RunnableNode(currentConfigXml){
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     var params: ArrayList<ActionParamInfo>? = null
 }
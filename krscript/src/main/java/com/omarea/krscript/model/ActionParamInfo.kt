@@ -1,8 +1,13 @@
 package com.omarea.krscript.model
 
 import com.omarea.common.model.SelectItem
+import java.io.Serializable
+
+class ActionParamInfo : Serializable {
+    companion object {
+        private const val serialVersionUID = 1L
+    }
 
-class ActionParamInfo {
     // 参数名：必需保持唯一
     var name: String? = null
 
@@ -1,6 +1,10 @@
 package com.omarea.krscript.model
 
 open class ClickableNode(currentPageConfigPath: String) : NodeInfoBase(currentPageConfigPath) {
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     // 功能图标路径（列表中）
     var iconPath = ""
 
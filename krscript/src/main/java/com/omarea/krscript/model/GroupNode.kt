@@ -1,6 +1,10 @@
 package com.omarea.krscript.model
 
 class GroupNode(currentPageConfigPath: String) : NodeInfoBase(currentPageConfigPath){
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     var supported: Boolean = true
     val children: ArrayList<NodeInfoBase> = ArrayList()
 }
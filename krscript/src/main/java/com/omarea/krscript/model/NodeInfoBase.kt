@@ -5,6 +5,10 @@ import java.io.Serializable
 import java.util.*
 
 open class NodeInfoBase(val currentPageConfigPath: String) : Serializable {
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     val pageConfigDir = (
         if (currentPageConfigPath.isNotEmpty()) {
             val dir = File(currentPageConfigPath).parent
@@ -32,4 +36,8 @@ open class NodeInfoBase(val currentPageConfigPath: String) : Serializable {
     var summary: String = ""
     // 摘要信息(脚本)
     var summarySh: String = ""
+    // 是否允许缓存脚本（visible、desc-sh、summary-sh等）的执行结果
+    var cache: Boolean = true
+    // desc-sh、summary-sh、get-state 尚未执行（延迟到界面显示后执行）
+    var deferred: Boolean = false
 }
@@ -1,6 +1,10 @@
 package com.omarea.krscript.model
 
 class PageNode(currentConfigXml: String) : ClickableNode(currentConfigXml) {
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     var pageConfigPath: String = ""
     var pageConfigSh: String = ""
     var onlineHtmlPage: String = ""
@@ -3,6 +3,10 @@ package com.omarea.krscript.model
 import com.omarea.common.model.SelectItem
 
 class PickerNode(currentConfigXml: String) : RunnableNode(currentConfigXml) {
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     var options: ArrayList<SelectItem>? = null
     var optionsSh = ""
     var value: String? = null
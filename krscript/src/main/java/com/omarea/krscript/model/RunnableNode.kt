@@ -22,6 +22,8 @@ open class RunnableNode(currentConfigXml: String) : ClickableNode(currentConfigX
     var shell = shellModeDefault
 
     companion object {
+        private const val serialVersionUID = 1L
+
         val shellModeDefault = "default"
         val shellModeBgTask = "bg-task"
         val shellModeHidden = "hidden"
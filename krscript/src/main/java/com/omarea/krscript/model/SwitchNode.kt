@@ -1,6 +1,10 @@
 package com.omarea.krscript.model
 
 class SwitchNode(currentConfigXml: String) : RunnableNode(currentConfigXml){
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     var getState: String = ""
     var checked = false
 }
\ No newline at end of file
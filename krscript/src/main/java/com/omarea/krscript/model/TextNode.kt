@@ -1,11 +1,20 @@
 package com.omarea.krscript.model
 
 import android.text.Layout
+import java.io.Serializable
 
 class TextNode(currentPageConfigPath: String) : NodeInfoBase(currentPageConfigPath) {
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+
     val rows = ArrayList<TextRow>()
 
-    class TextRow {
+    class TextRow : Serializable {
+        companion object {
+            private const val serialVersionUID = 1L
+        }
+
         // 文字大小
         internal var size: Int = -1
         // 文字颜色
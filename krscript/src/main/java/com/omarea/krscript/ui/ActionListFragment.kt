@@ -13,6 +13,7 @@ import android.widget.LinearLayout
 import android.widget.ScrollView
 import android.widget.TextView
 import android.widget.Toast
+import androidx.lifecycle.lifecycleScope
 import com.omarea.common.model.SelectItem
 import com.omarea.common.ui.DialogHelper
 import com.omarea.common.ui.DialogItemChooser
@@ -23,6 +24,7 @@ import com.omarea.krscript.HiddenTaskThread
 import com.omarea.krscript.R
 import com.omarea.krscript.TryOpenActivity
 import com.omarea.krscript.config.IconPathAnalysis
+import com.omarea.krscript.config.ProbeResultCache
 import com.omarea.krscript.executor.ScriptEnvironmen
 import com.omarea.krscript.model.*
 import com.omarea.krscript.shortcut.ActionShortcutManager
@@ -74,12 +76,14 @@ class ActionListFragment : androidx.fragment.app.Fragment(), PageLayoutRender.On
         rootGroup = ListItemGroup(this.context!!, true, GroupNode(""))
 
         if (actionInfos != null) {
-            PageLayoutRender(this.context!!, actionInfos!!, this, rootGroup)
+            val render = PageLayoutRender(this.context!!, actionInfos!!, this, rootGroup, viewLifecycleOwner.lifecycleScope)
             val layout = rootGroup.getView()
 
             val rootView = (this.view?.findViewById<ScrollView?>(R.id.kr_content))
             rootView?.removeAllViews()
             rootView?.addView(layout)
+            // 等待布局完成后再加载，以便优先加载屏幕上的项
+            layout.post { render.loadDeferredItems() }
             triggerAction(autoRunTask)
         }
     }
@@ -135,6 +139,12 @@ class ActionListFragment : androidx.fragment.app.Fragment(), PageLayoutRender.On
      * 当switch项被点击
      */
     override fun onSwitchClick(item: SwitchNode, onCompleted: Runnable) {
+        // 状态尚未读取，无法确定要切换到的值，提示后恢复开关的状态
+        if (item.deferred) {
+            Toast.makeText(context, getString(R.string.kr_state_loading), Toast.LENGTH_SHORT).show()
+            onCompleted.run()
+            return
+        }
         if (nodeUnlocked(item)) {
             val toValue = !item.checked
             if (item.confirm) {
@@ -504,12 +514,17 @@ class ActionListFragment : androidx.fragment.app.Fragment(), PageLayoutRender.On
     var hiddenTaskRunning = false
     private fun actionExecute(nodeInfo: RunnableNode, script: String, onExit: Runnable, params: HashMap<String, String>?) {
         val context = context!!
+        // 执行完成后页面上的状态可能已改变，需要重新加载的页面（或区块）连同是否可见的结果一起失效
+        val onActionExit = Runnable {
+            ProbeResultCache.invalidate(nodeInfo.currentPageConfigPath, nodeInfo.reloadPage || nodeInfo.updateBlocks != null)
+            onExit.run()
+        }
 
         if (nodeInfo.shell == RunnableNode.shellModeBgTask) {
             val onDismiss = Runnable {
                 krScriptActionHandler?.onActionCompleted(nodeInfo)
             }
-            BgTaskThread.startTask(context, script, params, nodeInfo, onExit, onDismiss)
+            BgTaskThread.startTask(context, script, params, nodeInfo, onActionExit, onDismiss)
         } else if (nodeInfo.shell == RunnableNode.shellModeHidden) {
             if (hiddenTaskRunning) {
                 Toast.makeText(context, getString(R.string.kr_hidden_task_running), Toast.LENGTH_SHORT).show()
@@ -519,7 +534,7 @@ class ActionListFragment : androidx.fragment.app.Fragment(), PageLayoutRender.On
                     hiddenTaskRunning = false
                     krScriptActionHandler?.onActionCompleted(nodeInfo)
                 }
-                HiddenTaskThread.startTask(context, script, params, nodeInfo, onExit, onDismiss)
+                HiddenTaskThread.startTask(context, script, params, nodeInfo, onActionExit, onDismiss)
             }
         } else {
             val onDismiss = Runnable {
@@ -527,7 +542,7 @@ class ActionListFragment : androidx.fragment.app.Fragment(), PageLayoutRender.On
             }
             val darkMode = themeMode != null && themeMode!!.isDarkMode
 
-            val dialog = DialogLogFragment.create(nodeInfo, onExit, onDismiss, script, params, darkMode)
+            val dialog = DialogLogFragment.create(nodeInfo, onActionExit, onDismiss, script, params, darkMode)
             dialog.isCancelable = false
             dialog.show(fragmentManager!!, "")
         }
@@ -45,30 +45,38 @@ class ListItemGroup(context: Context,
         return false
     }
 
-    fun triggerUpdateByKey(keys: Array<String>) {
+    /**
+     * 查找指定key的项（key为分组时包括分组内的所有项）
+     */
+    fun findItemsByKey(keys: Array<String>, result: ArrayList<ListItemView> = ArrayList()): ArrayList<ListItemView> {
         for (key in keys) {
             if (key.equals(this.key)) {
-                triggerUpdate()
+                getAllItems(result)
             } else {
                 for (child in this.children) {
                     if (child is ListItemGroup) {
-                        child.triggerUpdateByKey(keys)
-                    } else if (child.key.equals(key)) {
-                        child.updateViewByShell()
+                        child.findItemsByKey(arrayOf(key), result)
+                    } else if (child.key.equals(key) && !result.contains(child)) {
+                        result.add(child)
                     }
                 }
             }
         }
+        return result
     }
 
-    fun triggerUpdate() {
+    /**
+     * 获取所有项（包括子分组内的项，不包括分组本身）
+     */
+    fun getAllItems(result: ArrayList<ListItemView> = ArrayList()): ArrayList<ListItemView> {
         for (child in this.children) {
             if (child is ListItemGroup) {
-                child.triggerUpdate()
-            } else {
-                child.updateViewByShell()
+                child.getAllItems(result)
+            } else if (!result.contains(child)) {
+                result.add(child)
             }
         }
+        return result
     }
 
     init {
@@ -0,0 +1,79 @@
+package com.omarea.krscript.ui
+
+import android.content.Context
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+
+/**
+ * 在后台刷新列表项的脚本内容（desc-sh、summary-sh、get-state），界面先以已有的内容显示
+ * 每次取下一批时优先选择正在屏幕上显示的项，滚动后新进入屏幕的项也会被优先处理
+ * 每一批的脚本通过PageStateAggregator在一次往返中执行
+ * 只能在主线程调用
+ */
+class ListItemLoader(private val context: Context, private val scope: CoroutineScope, private val workers: Int) {
+    companion object {
+        // 延迟加载时每批最多的项数
+        private const val MAX_BATCH = 16
+    }
+
+    // 需要重新执行的项（一次操作触发的刷新作为一批）
+    private val updates = ArrayList<List<ListItemView>>()
+    // 等待延迟加载的项
+    private val deferred = ArrayList<ListItemView>()
+    private var running = 0
+
+    /**
+     * 重新执行列表项的脚本（同一批在一次往返中完成）
+     */
+    fun update(items: List<ListItemView>) {
+        if (items.isEmpty()) {
+            return
+        }
+        // 重新执行时不必再延迟加载
+        deferred.removeAll { items.contains(it) }
+        updates.add(items)
+        start()
+    }
+
+    /**
+     * 加载读取页面时被延迟执行的脚本
+     */
+    fun loadDeferred(items: Collection<ListItemView>) {
+        for (item in items) {
+            if (!deferred.contains(item)) {
+                deferred.add(item)
+            }
+        }
+        start()
+    }
+
+    private fun start() {
+        while (running < workers && (updates.isNotEmpty() || deferred.isNotEmpty())) {
+            running++
+            scope.launch(Dispatchers.Main) {
+                try {
+                    while (true) {
+                        if (updates.isNotEmpty()) {
+                            PageStateAggregator.update(context, updates.removeAt(0), false)
+                        } else if (deferred.isNotEmpty()) {
+                            PageStateAggregator.update(context, nextDeferred(), true)
+                        } else {
+                            break
+                        }
+                    }
+                } finally {
+                    running--
+                }
+            }
+        }
+    }
+
+    // 屏幕上有等待加载的项时只取屏幕上的项（一批的结果同时返回，不让屏幕外的项拖慢），否则按顺序取
+    private fun nextDeferred(): List<ListItemView> {
+        val onScreen = deferred.filter { it.isOnScreen }.take(MAX_BATCH)
+        val batch = onScreen.ifEmpty { deferred.take(MAX_BATCH) }
+        deferred.removeAll(batch)
+        return batch
+    }
+}
@@ -3,11 +3,11 @@ package com.omarea.krscript.ui
 import android.content.Context
 import android.widget.Switch
 import com.omarea.krscript.R
-import com.omarea.krscript.executor.ScriptEnvironmen
+import com.omarea.krscript.config.ProbeResultCache
 import com.omarea.krscript.model.SwitchNode
 import java.util.Locale.getDefault
 
-class ListItemSwitch(private val context: Context,
+class ListItemSwitch(context: Context,
                      private val config: SwitchNode) : ListItemClickable(context, R.layout.kr_switch_list_item, config) {
     protected var switchView = layout.findViewById<Switch?>(R.id.kr_switch)
 
@@ -19,14 +19,15 @@ class ListItemSwitch(private val context: Context,
             switchView?.isChecked = value
         }
 
-    override fun updateViewByShell() {
-        super.updateViewByShell()
-
+    override fun getShellFields(): ArrayList<ShellField> {
+        val fields = super.getShellFields()
         if (config.getState.isNotEmpty()) {
-            val shellResult = ScriptEnvironmen.executeResultRoot(context, config.getState, config)
-            config.checked = shellResult == "1" || shellResult.lowercase(getDefault()) == "true"
+            fields.add(ShellField(config.getState, ProbeResultCache.Kind.STATE) {
+                config.checked = it == "1" || it.lowercase(getDefault()) == "true"
+                checked = config.checked
+            })
         }
-        checked = config.checked
+        return fields
     }
 
     init {
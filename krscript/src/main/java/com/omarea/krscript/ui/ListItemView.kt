@@ -1,11 +1,12 @@
 package com.omarea.krscript.ui
 
 import android.content.Context
+import android.graphics.Rect
 import android.view.LayoutInflater
 import android.view.View
 import android.widget.TextView
 import com.omarea.krscript.R
-import com.omarea.krscript.executor.ScriptEnvironmen
+import com.omarea.krscript.config.ProbeResultCache
 import com.omarea.krscript.model.NodeInfoBase
 
 open class ListItemView(private val context: Context,
@@ -67,16 +68,38 @@ open class ListItemView(private val context: Context,
             return config.index
         }
 
-    open fun updateViewByShell() {
+    internal val node: NodeInfoBase
+        get() = config
+
+    // 重新执行desc-sh、summary-sh并刷新显示，需在主线程的协程中调用（脚本在后台执行）
+    suspend fun updateViewByShell() {
+        PageStateAggregator.update(context, listOf(this), false)
+    }
+
+    // 是否正在屏幕上显示
+    val isOnScreen: Boolean
+        get() = layout.isShown && layout.getGlobalVisibleRect(Rect())
+
+    /**
+     * 需要执行脚本获取的内容
+     */
+    class ShellField(val script: String, val kind: ProbeResultCache.Kind, val apply: (String) -> Unit)
+
+    internal open fun getShellFields(): ArrayList<ShellField> {
+        val fields = ArrayList<ShellField>()
         if (config.descSh.isNotEmpty()) {
-            config.desc = ScriptEnvironmen.executeResultRoot(context, config.descSh, config)
-            desc = config.desc
+            fields.add(ShellField(config.descSh, ProbeResultCache.Kind.DESC) {
+                config.desc = it
+                desc = it
+            })
         }
-
         if (config.summarySh.isNotEmpty()) {
-            config.summary = ScriptEnvironmen.executeResultRoot(context, config.summarySh, config)
-            summary = config.summary
+            fields.add(ShellField(config.summarySh, ProbeResultCache.Kind.SUMMARY) {
+                config.summary = it
+                summary = it
+            })
         }
+        return fields
     }
 
     fun getView(): View {
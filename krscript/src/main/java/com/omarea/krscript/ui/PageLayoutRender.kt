@@ -1,17 +1,20 @@
 package com.omarea.krscript.ui
 
 import android.content.Context
-import android.os.Handler
-import android.os.Looper
 import android.util.Log
 import android.widget.Toast
 import com.omarea.krscript.R
+import com.omarea.krscript.executor.ScriptEnvironmenAsync
 import com.omarea.krscript.model.*
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
 
 class PageLayoutRender(private val mContext: Context,
                        private val itemConfigList: ArrayList<NodeInfoBase>,
                        private val clickListener: OnItemClickListener,
-                       private val rootGroup: ListItemGroup) {
+                       private val rootGroup: ListItemGroup,
+                       private val scope: CoroutineScope) {
 
     interface OnItemClickListener {
         fun onPageClick(item: PageNode, onCompleted: Runnable)
@@ -36,19 +39,34 @@ class PageLayoutRender(private val mContext: Context,
         return null
     }
 
+    private val itemLoader = ListItemLoader(mContext, scope, ScriptEnvironmenAsync.parallelism)
+
+    // 读取页面时被延迟执行脚本的项
+    private val deferredItems = ArrayList<ListItemView>()
+
+    // 操作执行完后刷新界面，脚本在后台执行（屏幕上的项优先），界面在主线程更新，页面销毁时自动取消
     private fun getCommonOnExitRunnable(item: NodeInfoBase, node: ListItemClickable): Runnable {
-        val handler = Handler(Looper.getMainLooper())
         return Runnable {
-            handler.post {
-                node.updateViewByShell()
-
+            scope.launch(Dispatchers.Main) {
+                val items = arrayListOf<ListItemView>(node)
                 if (item is RunnableNode && item.updateBlocks != null) {
-                    rootGroup.triggerUpdateByKey(item.updateBlocks!!)
+                    rootGroup.findItemsByKey(item.updateBlocks!!, items)
                 }
+                itemLoader.update(items)
             }
         }
     }
 
+    /**
+     * 在后台加载读取页面时被延迟执行的脚本（需在界面添加到窗口后调用，以便判断哪些项在屏幕上）
+     */
+    fun loadDeferredItems() {
+        if (deferredItems.isNotEmpty()) {
+            itemLoader.loadDeferred(deferredItems)
+            deferredItems.clear()
+        }
+    }
+
     private fun onItemClick(item: NodeInfoBase, listItemView: ListItemClickable) {
         when (item) {
             is PageNode -> clickListener.onPageClick(item, getCommonOnExitRunnable(item, listItemView))
@@ -112,6 +130,9 @@ class PageLayoutRender(private val mContext: Context,
                         uiRender.setOnLongClickListener(this.onItemLongClickListener)
                     }
                     parent.addView(uiRender)
+                    if (it.deferred) {
+                        deferredItems.add(uiRender)
+                    }
                 }
             } catch (ex: Exception) {
                 Toast.makeText(mContext, it.title + "界面渲染异常" + ex.message, Toast.LENGTH_SHORT).show()
@@ -0,0 +1,59 @@
+package com.omarea.krscript.ui
+
+import android.content.Context
+import com.omarea.krscript.config.ProbeResultCache
+import com.omarea.krscript.executor.ScriptEnvironmenAsync
+import com.omarea.krscript.model.NodeInfoBase
+
+/**
+ * 汇总一组列表项需要执行的脚本（desc-sh、summary-sh、get-state），在同一个会话中一次往返执行，再将结果分发到各项
+ * 每个脚本单独执行、单独返回结果，其中某个脚本失败不影响其它项
+ * 需在主线程的协程中调用（脚本在后台执行，界面在主线程更新）
+ */
+object PageStateAggregator {
+    private class Request(val item: ListItemView, val field: ListItemView.ShellField) {
+        val node: NodeInfoBase
+            get() = item.node
+
+        // 从流读取的配置没有路径，无法区分页面，不使用缓存
+        val cacheable: Boolean
+            get() = node.cache && node.currentPageConfigPath.isNotEmpty()
+    }
+
+    /**
+     * @param useCache 是否优先使用缓存的结果（重新执行的结果总会更新到缓存）
+     */
+    suspend fun update(context: Context, items: List<ListItemView>, useCache: Boolean) {
+        val pending = ArrayList<Request>()
+        for (item in items) {
+            for (field in item.getShellFields()) {
+                val request = Request(item, field)
+                val cached = if (useCache && request.cacheable) {
+                    ProbeResultCache.get(request.node.currentPageConfigPath, field.script, field.kind)
+                } else {
+                    null
+                }
+                if (cached != null) {
+                    field.apply(cached)
+                } else {
+                    pending.add(request)
+                }
+            }
+        }
+
+        if (pending.isNotEmpty()) {
+            val results = ScriptEnvironmenAsync.executeResultRootBatch(context, pending.map { it.field.script }, pending.map { it.node })
+            for (i in pending.indices) {
+                val request = pending[i]
+                if (request.cacheable) {
+                    ProbeResultCache.put(request.node.currentPageConfigPath, request.field.script, request.field.kind, results[i])
+                }
+                request.field.apply(results[i])
+            }
+        }
+
+        for (item in items) {
+            item.node.deferred = false
+        }
+    }
+}
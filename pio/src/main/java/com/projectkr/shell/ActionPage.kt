@@ -19,6 +19,7 @@ import com.omarea.common.ui.ProgressBarDialog
 import com.omarea.krscript.TryOpenActivity
 import com.omarea.krscript.config.IconPathAnalysis
 import com.omarea.krscript.config.PageConfigReader
+import com.omarea.krscript.config.ProbeResultCache
 import com.omarea.krscript.config.PageConfigSh
 import com.omarea.krscript.executor.ScriptEnvironmen
 import com.omarea.krscript.model.*
@@ -270,6 +271,7 @@ class ActionPage : AppCompatActivity() {
             if (menuOption.autoFinish) {
                 finish()
             } else if (menuOption.reloadPage) {
+                ProbeResultCache.clear()
                 recreate()
             } else if (menuOption.autoKill) {
                 killApp()
@@ -420,7 +422,7 @@ class ActionPage : AppCompatActivity() {
                         applicationContext,
                         pageConfigPath,
                         pageConfigDir
-                    ).readConfigXml()
+                    ).apply { deferValueScripts = true }.readConfigXml()
                 }
 
                 if (afterRead.isNotEmpty()) {
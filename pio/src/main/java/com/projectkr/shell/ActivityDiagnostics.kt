@@ -0,0 +1,143 @@
+package com.projectkr.shell
+
+import android.os.Bundle
+import android.view.LayoutInflater
+import android.view.Menu
+import android.view.MenuItem
+import android.view.View
+import android.widget.TextView
+import androidx.appcompat.app.AppCompatActivity
+import androidx.appcompat.widget.Toolbar
+import com.omarea.common.shell.ShellMetrics
+import com.projectkr.shell.databinding.ActivityDiagnosticsBinding
+
+/**
+ * 诊断页面：展示Shell会话和页面脚本的耗时统计
+ */
+class ActivityDiagnostics : AppCompatActivity() {
+    companion object {
+        private const val LIMIT = 20
+        private const val MENU_RESET = 1
+    }
+
+    private lateinit var binding: ActivityDiagnosticsBinding
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        ThemeModeState.switchTheme(this)
+        binding = ActivityDiagnosticsBinding.inflate(layoutInflater)
+        setContentView(binding.root)
+
+        val toolbar = findViewById<View>(R.id.toolbar) as Toolbar
+        setSupportActionBar(toolbar)
+        setTitle(R.string.title_activity_diagnostics)
+
+        // 显示返回按钮
+        supportActionBar!!.setHomeButtonEnabled(true)
+        supportActionBar!!.setDisplayHomeAsUpEnabled(true)
+        toolbar.setNavigationOnClickListener { _ ->
+            finish()
+        }
+    }
+
+    override fun onResume() {
+        super.onResume()
+        render()
+    }
+
+    override fun onCreateOptionsMenu(menu: Menu): Boolean {
+        menu.add(Menu.NONE, MENU_RESET, Menu.NONE, R.string.diagnostics_reset)
+        return true
+    }
+
+    override fun onOptionsItemSelected(item: MenuItem): Boolean {
+        if (item.itemId == MENU_RESET) {
+            ShellMetrics.reset()
+            render()
+            return true
+        }
+        return super.onOptionsItemSelected(item)
+    }
+
+    private fun render() {
+        val content = binding.diagnosticsContent
+        content.removeAllViews()
+
+        addSection(getString(R.string.diagnostics_startup))
+        val steps = ShellMetrics.getStartupSteps()
+        if (steps.isEmpty()) {
+            addItem(getString(R.string.diagnostics_empty), "")
+        }
+        for (step in steps) {
+            addItem(step.first, getString(R.string.diagnostics_step_summary, step.second))
+        }
+
+        addSection(getString(R.string.diagnostics_shells))
+        val shells = ShellMetrics.getShellStats()
+        if (shells.isEmpty()) {
+            addItem(getString(R.string.diagnostics_empty), "")
+        }
+        for (stats in shells) {
+            addItem(stats.key, getString(
+                R.string.diagnostics_shell_summary,
+                stats.latency.totalCount,
+                stats.failures.get(),
+                stats.latency.average,
+                stats.latency.percentile(95.0),
+                stats.latency.maxValue,
+                stats.queueWait.average,
+                stats.queueWait.percentile(95.0),
+                stats.queueWait.maxValue,
+                stats.lockHold.average,
+                stats.lockHold.percentile(95.0),
+                stats.lockHold.maxValue
+            ))
+        }
+
+        addSection(getString(R.string.diagnostics_pages))
+        val pages = ShellMetrics.getSlowestPages(LIMIT)
+        if (pages.isEmpty()) {
+            addItem(getString(R.string.diagnostics_empty), "")
+        }
+        for (page in pages) {
+            addItem(page.first.ifEmpty { "-" }, getString(R.string.diagnostics_page_summary, page.second))
+        }
+
+        addSection(getString(R.string.diagnostics_scripts))
+        val scripts = ShellMetrics.getSlowestScripts(LIMIT)
+        if (scripts.isEmpty()) {
+            addItem(getString(R.string.diagnostics_empty), "")
+        }
+        for (stats in scripts) {
+            val title = if (stats.node.isEmpty()) stats.page.ifEmpty { "-" } else "${stats.page} » ${stats.node}"
+            addItem(title, getString(
+                R.string.diagnostics_script_summary,
+                stats.script,
+                stats.latency.totalCount,
+                stats.failures.get(),
+                stats.latency.totalTime,
+                stats.latency.average,
+                stats.latency.percentile(95.0),
+                stats.latency.maxValue
+            ))
+        }
+    }
+
+    private fun addSection(title: String) {
+        val view = TextView(this)
+        view.text = title
+        view.textSize = 16f
+        view.setPadding(0, 24, 0, 8)
+        binding.diagnosticsContent.addView(view)
+    }
+
+    private fun addItem(title: String, text: String) {
+        val view = LayoutInflater.from(this).inflate(R.layout.list_item_diagnostics, binding.diagnosticsContent, false)
+        view.findViewById<TextView>(R.id.ItemTitle).text = title
+        view.findViewById<TextView>(R.id.ItemText).run {
+            this.text = text
+            visibility = if (text.isEmpty()) View.GONE else View.VISIBLE
+        }
+        binding.diagnosticsContent.addView(view)
+    }
+}
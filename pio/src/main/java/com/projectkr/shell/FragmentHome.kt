@@ -156,17 +156,18 @@ class FragmentHome : androidx.fragment.app.Fragment() {
         }
         val cores = ArrayList<CpuCoreInfo>()
         val loads = CpuFrequencyUtils.getCpuLoad()
+        val freqs = CpuFrequencyUtils.getCoresFrequency(coreCount)
         for (coreIndex in 0 until coreCount) {
             val core = CpuCoreInfo()
 
-            core.currentFreq = CpuFrequencyUtils.getCurrentFrequency("cpu$coreIndex")
+            core.currentFreq = freqs[coreIndex][0]
             if (!maxFreqs.containsKey(coreIndex) || (core.currentFreq != "" && maxFreqs.get(coreIndex).isNullOrEmpty())) {
-                maxFreqs[coreIndex] = CpuFrequencyUtils.getCurrentMaxFrequency("cpu$coreIndex")
+                maxFreqs[coreIndex] = freqs[coreIndex][2]
             }
             core.maxFreq = maxFreqs.get(coreIndex)
 
             if (!minFreqs.containsKey(coreIndex) || (core.currentFreq != "" && minFreqs.get(coreIndex).isNullOrEmpty())) {
-                minFreqs[coreIndex] = CpuFrequencyUtils.getCurrentMinFrequency("cpu$coreIndex")
+                minFreqs[coreIndex] = freqs[coreIndex][1]
             }
             core.minFreq = minFreqs.get(coreIndex)
 
@@ -2,7 +2,10 @@ package com.projectkr.shell;
 
 import android.content.Context;
 
+import com.omarea.common.shell.KeepShellPool;
+import com.omarea.common.shell.KeepShellPublic;
 import com.omarea.krscript.executor.ScriptEnvironmen;
+import com.omarea.krscript.executor.ScriptEnvironmenStartup;
 import com.omarea.krscript.model.PageNode;
 
 import java.io.InputStream;
@@ -22,6 +25,8 @@ public class KrScriptConfig {
     private final static String FAVORITE_CONFIG_SH = "favorite_config_sh";
     private final static String ALLOW_HOME_PAGE = "allow_home_page";
     private final static String BEFORE_START_SH = "before_start_sh";
+    private final static String SHELL_POOL_SIZE = "shell_pool_size";
+    private final static String RESIDENT_ENVIRONMENT = "resident_environment";
     private static HashMap<String, String> configInfo;
     private final String EXECUTOR_CORE_DEFAULT = "file:///android_asset/kr-script/executor.sh";
     private final String PAGE_LIST_CONFIG_DEFAULT = "file:///android_asset/kr-script/pages/more.xml";
@@ -60,7 +65,13 @@ public class KrScriptConfig {
                 }
             } catch (Exception ex) {
             }
-            ScriptEnvironmen.init(context, getExecutorCore(), getToolkitDir());
+            KeepShellPublic.INSTANCE.setPoolSize(getShellPoolSize());
+            // 未配置时保留用户在应用中的设置
+            if (configInfo.containsKey(RESIDENT_ENVIRONMENT)) {
+                ScriptEnvironmen.setResidentEnvironment(context, getResidentEnvironment());
+            }
+            // 在后台初始化执行环境，需要时通过ScriptEnvironmenStartup等待
+            ScriptEnvironmenStartup.INSTANCE.start(context, getExecutorCore(), getToolkitDir());
         }
 
         return this;
@@ -120,6 +131,24 @@ public class KrScriptConfig {
         return true;
     }
 
+    private int getShellPoolSize() {
+        if (configInfo != null && configInfo.containsKey(SHELL_POOL_SIZE)) {
+            try {
+                return Integer.parseInt(configInfo.get(SHELL_POOL_SIZE));
+            } catch (Exception ignored) {
+            }
+        }
+        return KeepShellPool.DEFAULT_SIZE;
+    }
+
+    private boolean getResidentEnvironment() {
+        if (configInfo != null && configInfo.containsKey(RESIDENT_ENVIRONMENT)) {
+            String value = configInfo.get(RESIDENT_ENVIRONMENT);
+            return value != null && value.equals("1");
+        }
+        return false;
+    }
+
     public String getBeforeStartSh() {
         if (configInfo != null && configInfo.containsKey(BEFORE_START_SH)) {
             return configInfo.get(BEFORE_START_SH);
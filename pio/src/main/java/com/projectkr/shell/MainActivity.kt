@@ -20,6 +20,7 @@ import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import androidx.appcompat.widget.Toolbar
 import androidx.core.content.ContextCompat
+import androidx.lifecycle.lifecycleScope
 import com.omarea.common.shared.FilePathResolver
 import com.omarea.common.ui.DialogHelper
 import com.omarea.common.ui.ProgressBarDialog
@@ -30,18 +31,22 @@ import com.omarea.krscript.ui.ActionListFragment
 import com.omarea.krscript.ui.ParamsFileChooserRender
 import com.omarea.vtools.FloatMonitor
 import com.projectkr.shell.databinding.ActivityMainBinding
-import com.omarea.common.shell.KeepShellPublic
+import com.omarea.common.shell.KeepShellWarmUp
 import com.projectkr.shell.ui.TabIconHelper
 import androidx.core.view.isVisible
 import androidx.activity.OnBackPressedDispatcher
 import androidx.activity.ComponentActivity
 import androidx.activity.OnBackPressedCallback
+import kotlinx.coroutines.launch
 
 class MainActivity : AppCompatActivity() {
+    companion object {
+        const val EXTRA_HAS_ROOT = "hasRoot"
+    }
+
     private val progressBarDialog = ProgressBarDialog(this)
     private var handler = Handler()
     private var krScriptConfig = KrScriptConfig()
-    private val hasRoot by lazy { KeepShellPublic.checkRoot() }
     private lateinit var binding: ActivityMainBinding
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -56,6 +61,30 @@ class MainActivity : AppCompatActivity() {
 
         krScriptConfig = KrScriptConfig()
 
+        // 优先使用启动页传递的ROOT检查结果，否则在协程中等待检查完成，不阻塞主线程
+        if (intent.hasExtra(EXTRA_HAS_ROOT)) {
+            setupTabs(intent.getBooleanExtra(EXTRA_HAS_ROOT, false))
+        } else {
+            lifecycleScope.launch {
+                setupTabs(KeepShellWarmUp.await())
+            }
+        }
+
+        val themeConfig = ThemeConfig(applicationContext)
+        if (themeConfig.getAllowNotificationUI()) {
+            WakeLockService.startService(applicationContext)
+        }
+
+        onBackPressedDispatcher.addCallback(this, object : OnBackPressedCallback(true) {
+            override fun handleOnBackPressed() {
+                startService(Intent(this@MainActivity, WakeLockService::class.java).apply { action = WakeLockService.ACTION_END_WAKELOCK })
+                isEnabled = false
+                onBackPressedDispatcher.onBackPressed()
+            }
+        })
+    }
+
+    private fun setupTabs(hasRoot: Boolean) {
         binding.mainTabhost.setup()
         val tabIconHelper = TabIconHelper(binding.mainTabhost, this)
         if (hasRoot && krScriptConfig.allowHomePage) {
@@ -108,19 +137,6 @@ class MainActivity : AppCompatActivity() {
             transaction.replace(R.id.main_tabhost_cpu, home)
             transaction.commitAllowingStateLoss()
         }
-
-        val themeConfig = ThemeConfig(applicationContext)
-        if (themeConfig.getAllowNotificationUI()) {
-            WakeLockService.startService(applicationContext)
-        }
-
-        onBackPressedDispatcher.addCallback(this, object : OnBackPressedCallback(true) {
-            override fun handleOnBackPressed() {
-                startService(Intent(this@MainActivity, WakeLockService::class.java).apply { action = WakeLockService.ACTION_END_WAKELOCK })
-                isEnabled = false
-                onBackPressedDispatcher.onBackPressed()
-            }
-        })
     }
 
     private fun getItems(pageNode: PageNode): ArrayList<NodeInfoBase>? {
@@ -130,7 +146,7 @@ class MainActivity : AppCompatActivity() {
             items = PageConfigSh(this, pageNode.pageConfigSh, null).execute()
         }
         if (items == null && pageNode.pageConfigPath.isNotEmpty()) {
-            items = PageConfigReader(this.applicationContext, pageNode.pageConfigPath, null).readConfigXml()
+            items = PageConfigReader(this.applicationContext, pageNode.pageConfigPath, null).apply { deferValueScripts = true }.readConfigXml()
         }
 
         return items
@@ -329,6 +345,9 @@ private fun chooseFilePath(fileSelectedInterface: ParamsFileChooserRender.FileSe
             R.id.option_menu_reboot -> {
                 DialogPower(this).showPowerMenu()
             }
+            R.id.option_menu_diagnostics -> {
+                startActivity(Intent(this, ActivityDiagnostics::class.java))
+            }
             R.id.action_graph -> {
                 if (FloatMonitor.isShown == true) {
                     FloatMonitor(this).hidePopupWindow()
@@ -18,10 +18,11 @@ import androidx.core.content.ContextCompat
 import androidx.core.view.WindowCompat
 import androidx.core.view.WindowInsetsControllerCompat
 import androidx.lifecycle.lifecycleScope
-import com.omarea.common.shell.KeepShellPublic
+import com.omarea.common.shell.KeepShellWarmUp
 import com.omarea.common.shell.ShellExecutor
 import com.omarea.common.ui.DialogHelper
 import com.omarea.krscript.executor.ScriptEnvironmen
+import com.omarea.krscript.executor.ScriptEnvironmenStartup
 import com.projectkr.shell.databinding.ActivitySplashBinding
 import com.projectkr.shell.R
 import kotlinx.coroutines.Dispatchers
@@ -172,18 +173,21 @@ class SplashActivity : AppCompatActivity() {
         if (!started || starting) return
         starting = true
 
+        // 在后台并行启动ROOT会话，同时解析配置、释放工具箱（打开应用时才重新检查之前未获得的ROOT权限）
+        KeepShellWarmUp.retry()
         lifecycleScope.launch(Dispatchers.IO) {
-            hasRoot = KeepShellPublic.checkRoot()
+            val config = KrScriptConfig().init(this@SplashActivity)
+            ScriptEnvironmenStartup.await(this@SplashActivity)
+            hasRoot = KeepShellWarmUp.await()
             withContext(Dispatchers.Main) {
                 starting = false
-                startToFinish()
+                startToFinish(config)
             }
         }
     }
 
-    private fun startToFinish() {
+    private fun startToFinish(config: KrScriptConfig) {
         binding.startStateText.text = getString(R.string.pop_started)
-        val config = KrScriptConfig().init(this)
 
         if (config.beforeStartSh.isNotEmpty()) {
             runBeforeStartSh(config, hasRoot)
@@ -194,7 +198,7 @@ class SplashActivity : AppCompatActivity() {
         startActivity(
             if (intent?.getBooleanExtra("JumpActionPage", false) == true)
                 Intent(this, ActionPage::class.java).apply { putExtras(intent!!) }
-            else Intent(this, MainActivity::class.java)
+            else Intent(this, MainActivity::class.java).putExtra(MainActivity.EXTRA_HAS_ROOT, hasRoot)
         )
         finish()
     }
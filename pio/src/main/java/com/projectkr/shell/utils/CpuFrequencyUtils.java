@@ -4,10 +4,12 @@ import android.annotation.SuppressLint;
 
 import com.omarea.common.shell.KeepShellPublic;
 import com.omarea.common.shell.KernelProrp;
+import com.omarea.common.shell.ShellResult;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class CpuFrequencyUtils {
     private static ArrayList<String[]> cpuClusterInfo;
@@ -21,6 +23,32 @@ public class CpuFrequencyUtils {
         return KernelProrp.INSTANCE.getProp(Constants.scaling_cur_freq.replace("cpu0", core));
     }
 
+    /**
+     * 一次读取多个核心的当前频率、最小频率、最大频率
+     *
+     * @param coreCount 核心数
+     * @return 每个核心对应一个数组：[当前频率, 最小频率, 最大频率]
+     */
+    public static ArrayList<String[]> getCoresFrequency(int coreCount) {
+        ArrayList<String> props = new ArrayList<>();
+        for (int coreIndex = 0; coreIndex < coreCount; coreIndex++) {
+            String core = "cpu" + coreIndex;
+            props.add(Constants.scaling_cur_freq.replace("cpu0", core));
+            props.add(Constants.scaling_min_freq.replace("cpu0", core));
+            props.add(Constants.scaling_max_freq.replace("cpu0", core));
+        }
+        List<ShellResult> values = KernelProrp.INSTANCE.getProps(props);
+        ArrayList<String[]> result = new ArrayList<>();
+        for (int coreIndex = 0; coreIndex < coreCount; coreIndex++) {
+            String[] freqs = new String[3];
+            for (int i = 0; i < 3; i++) {
+                freqs[i] = values.get(coreIndex * 3 + i).getStdout();
+            }
+            result.add(freqs);
+        }
+        return result;
+    }
+
     public static int getCurrentFrequency() {
         String freqs = KeepShellPublic.INSTANCE.doCmdSync("cat /sys/devices/system/cpu/cpu*/cpufreq/cpuinfo_cur_freq");
         int max = 0;
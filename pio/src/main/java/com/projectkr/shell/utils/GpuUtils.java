@@ -3,21 +3,30 @@ package com.projectkr.shell.utils;
 import com.omarea.common.shell.KernelProrp;
 import com.omarea.common.shell.RootFile;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class GpuUtils {
     private static String GPU_LOAD_PATH = null;
     private static String GPU_FREQ_PATH = null;
 
+    // 一次检查多个候选路径，返回第一个存在的
+    private static String firstExists(String... paths) {
+        List<Boolean> exists = RootFile.INSTANCE.filesExist(Arrays.asList(paths));
+        for (int i = 0; i < paths.length; i++) {
+            if (exists.get(i)) {
+                return paths[i];
+            }
+        }
+        return "";
+    }
+
     public static String getGpuFreq() {
         if (GPU_FREQ_PATH == null) {
-            String path1 = "/sys/kernel/gpu/gpu_clock";
-            String path2 = "/sys/class/kgsl/kgsl-3d0/devfreq/cur_freq";
-            if (RootFile.INSTANCE.fileExists(path1)) {
-                GPU_FREQ_PATH = path1;
-            } else if (RootFile.INSTANCE.fileExists(path2)) {
-                GPU_FREQ_PATH = path2;
-            } else {
-                GPU_FREQ_PATH = "";
-            }
+            GPU_FREQ_PATH = firstExists(
+                    "/sys/kernel/gpu/gpu_clock",
+                    "/sys/class/kgsl/kgsl-3d0/devfreq/cur_freq"
+            );
         }
 
         if (GPU_FREQ_PATH.isEmpty()) {
@@ -33,18 +42,11 @@ public class GpuUtils {
 
     public static int getGpuLoad() {
         if (GPU_LOAD_PATH == null) {
-            String path1 = "/sys/kernel/gpu/gpu_busy";
-            String path2 = "/sys/class/kgsl/kgsl-3d0/devfreq/gpu_load";
-            String path3 = "/sys/class/kgsl/kgsl-3d0/gpu_busy_percentage";
-            if (RootFile.INSTANCE.fileExists(path1)) {
-                GPU_LOAD_PATH = path1;
-            } else if (RootFile.INSTANCE.fileExists(path2)) {
-                GPU_LOAD_PATH = path2;
-            } else if (RootFile.INSTANCE.fileExists(path3)) {
-                GPU_LOAD_PATH = path3;
-            } else {
-                GPU_LOAD_PATH = "";
-            }
+            GPU_LOAD_PATH = firstExists(
+                    "/sys/kernel/gpu/gpu_busy",
+                    "/sys/class/kgsl/kgsl-3d0/devfreq/gpu_load",
+                    "/sys/class/kgsl/kgsl-3d0/gpu_busy_percentage"
+            );
         }
 
         if (GPU_LOAD_PATH.isEmpty()) {